@@ -0,0 +1,301 @@
+package com.wwimmo.imageeditor;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.media.ExifInterface;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.util.TypedValue;
+
+import com.wwimmo.imageeditor.utils.Utility;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.annotation.Nullable;
+
+/**
+ * Background image file or drawable resource, decoded on demand.
+ *
+ * Only the size and orientation are read up front. The editor decodes a copy subsampled to
+ * the size it is displayed at, and exports at the original size read the full resolution
+ * pixels from the source again, region by region.
+ *
+ * Decoded bitmaps keep the pixel layout of the source, the EXIF orientation is applied as a
+ * transform when they are drawn so that no rotated copy is ever allocated. Drawable resources
+ * are likewise decoded at their source pixels, but measure as if scaled for the screen density
+ * like {@link BitmapFactory#decodeResource(Resources, int)} does, so the image size and
+ * exports cropped to it do not depend on the density bucket the drawable comes from.
+ */
+public class BackgroundSource {
+    private final Resources mResources;
+    private final int mResourceId;
+    private final String mPath;
+    private final int mRotationInDegrees;
+    // Size of the source pixels, before applying the orientation
+    private final int mSourceWidth, mSourceHeight;
+    // Screen density over the density of a drawable resource, 1 for files
+    private final float mDensityScale;
+
+    private BackgroundSource(Resources resources, int resourceId, String path, int rotationInDegrees,
+                             int sourceWidth, int sourceHeight, float densityScale) {
+        mResources = resources;
+        mResourceId = resourceId;
+        mPath = path;
+        mRotationInDegrees = rotationInDegrees;
+        mSourceWidth = sourceWidth;
+        mSourceHeight = sourceHeight;
+        mDensityScale = densityScale;
+    }
+
+    /**
+     * Reads the size and orientation of an image.
+     *
+     * @param filename drawable resource name or file path
+     * @return the source, or null if the image can not be decoded
+     */
+    @Nullable
+    public static BackgroundSource open(Context context, String filename, String directory) {
+        Resources resources = context.getResources();
+        int res = resources.getIdentifier(
+                filename.lastIndexOf('.') == -1 ? filename : filename.substring(0, filename.lastIndexOf('.')),
+                "drawable",
+                context.getPackageName());
+
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        if (res != 0) {
+            // Sizes are in source pixels, the density scale is kept separately
+            bounds.inScaled = false;
+            BitmapFactory.decodeResource(resources, res, bounds);
+            return create(resources, res, null, 0, bounds, densityScale(resources, res));
+        }
+
+        String convertedDirectory = directory == null ? "" : directory;
+        String path = filename + convertedDirectory;
+        int rotationInDegrees;
+        try {
+            ExifInterface exif = new ExifInterface(path);
+            rotationInDegrees = exifToDegrees(exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL));
+        } catch (Exception e) {
+            Log.e("SKETCHCANVAS", "exception in openImageFile when creating ExifInterface: " + e);
+            path = new File(filename, convertedDirectory).toString();
+            rotationInDegrees = 0;
+        }
+        BitmapFactory.decodeFile(path, bounds);
+        return create(null, 0, path, rotationInDegrees, bounds, 1);
+    }
+
+    @Nullable
+    private static BackgroundSource create(Resources resources, int resourceId, String path, int rotationInDegrees,
+                                           BitmapFactory.Options bounds, float densityScale) {
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            return null;
+        }
+        return new BackgroundSource(resources, resourceId, path, rotationInDegrees, bounds.outWidth, bounds.outHeight,
+                densityScale);
+    }
+
+    /**
+     * @return the scale {@link BitmapFactory#decodeResource(Resources, int)} applies to a
+     *         drawable for the density bucket it was found in
+     */
+    private static float densityScale(Resources resources, int resourceId) {
+        TypedValue value = new TypedValue();
+        resources.getValue(resourceId, value, true);
+        if (value.density == TypedValue.DENSITY_NONE) {
+            return 1;
+        }
+        int density = value.density == TypedValue.DENSITY_DEFAULT ? DisplayMetrics.DENSITY_DEFAULT : value.density;
+        return (float)resources.getDisplayMetrics().densityDpi / density;
+    }
+
+    private static int exifToDegrees(int exifOrientation) {
+        if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_90) {
+            return 90;
+        } else if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_180) {
+            return 180;
+        } else if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_270) {
+            return 270;
+        }
+        return 0;
+    }
+
+    /**
+     * @return width of the image as displayed, after applying the orientation and the density
+     *         scale of drawable resources
+     */
+    public int getWidth() {
+        return scaled(getPixelWidth());
+    }
+
+    /**
+     * @return height of the image as displayed, after applying the orientation and the density
+     *         scale of drawable resources
+     */
+    public int getHeight() {
+        return scaled(getPixelHeight());
+    }
+
+    /**
+     * @return width of the source pixels after applying the orientation, before any density scale
+     */
+    public int getPixelWidth() {
+        return mRotationInDegrees % 180 == 0 ? mSourceWidth : mSourceHeight;
+    }
+
+    /**
+     * @return height of the source pixels after applying the orientation, before any density scale
+     */
+    public int getPixelHeight() {
+        return mRotationInDegrees % 180 == 0 ? mSourceHeight : mSourceWidth;
+    }
+
+    private int scaled(int size) {
+        // Rounded like BitmapFactory rounds scaled resources
+        return mDensityScale == 1 ? size : Math.max(1, (int)(size * mDensityScale + 0.5f));
+    }
+
+    /**
+     * @return width of the source pixels, before applying the orientation
+     */
+    public int getSourceWidth() {
+        return mSourceWidth;
+    }
+
+    /**
+     * @return height of the source pixels, before applying the orientation
+     */
+    public int getSourceHeight() {
+        return mSourceHeight;
+    }
+
+    public boolean isSameSource(@Nullable BackgroundSource other) {
+        return other != null && other.mResourceId == mResourceId
+                && (mPath == null ? other.mPath == null : mPath.equals(other.mPath));
+    }
+
+    public int getRotationInDegrees() {
+        return mRotationInDegrees;
+    }
+
+    /**
+     * Decodes the image subsampled to the smallest size that still covers
+     * {@code targetWidth} x {@code targetHeight} once oriented.
+     *
+     * @param options fresh options, filled in here, which the caller may use to cancel the decode
+     * @return the bitmap, or null if it can not be decoded or the decode was cancelled
+     */
+    @Nullable
+    public Bitmap decode(int targetWidth, int targetHeight, BitmapFactory.Options options) {
+        int width = getPixelWidth(), height = getPixelHeight();
+        float scale = Math.max((float)targetWidth / width, (float)targetHeight / height);
+
+        if (targetWidth > 0 && targetHeight > 0 && scale < 1) {
+            int neededWidth = (int)Math.ceil(width * scale), neededHeight = (int)Math.ceil(height * scale);
+            int sampleSize = 1;
+            while (width / (sampleSize * 2) >= neededWidth && height / (sampleSize * 2) >= neededHeight) {
+                sampleSize *= 2;
+            }
+            options.inSampleSize = sampleSize;
+
+            // Scales the subsampled pixels the rest of the way while decoding
+            int sampledWidth = mSourceWidth / sampleSize;
+            int targetSourceWidth = (int)Math.ceil(mSourceWidth * scale);
+            if (sampledWidth > targetSourceWidth) {
+                options.inScaled = true;
+                options.inDensity = sampledWidth;
+                options.inTargetDensity = targetSourceWidth;
+            }
+        }
+
+        return decodeSource(options);
+    }
+
+    /**
+     * Decodes the image at the size of its source pixels.
+     */
+    @Nullable
+    public Bitmap decodeFull() {
+        return decodeSource(new BitmapFactory.Options());
+    }
+
+    @Nullable
+    private Bitmap decodeSource(BitmapFactory.Options options) {
+        if (mPath != null) {
+            return BitmapFactory.decodeFile(mPath, options);
+        }
+        if (options.inDensity == 0) {
+            // Keeps decodeResource from scaling by the density bucket of the drawable
+            options.inScaled = false;
+        }
+        return BitmapFactory.decodeResource(mResources, mResourceId, options);
+    }
+
+    /**
+     * @return a decoder for full resolution regions of the source, or null if the format does
+     *         not support region decoding
+     */
+    @Nullable
+    public BitmapRegionDecoder newRegionDecoder() {
+        try {
+            if (mPath != null) {
+                return BitmapRegionDecoder.newInstance(mPath, false);
+            }
+            InputStream stream = mResources.openRawResource(mResourceId);
+            try {
+                return BitmapRegionDecoder.newInstance(stream, false);
+            } finally {
+                stream.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Draws the part of the full resolution image covering {@code region}, in image coordinates
+     * of {@link #getWidth()} x {@link #getHeight()}, at its place on {@code canvas}.
+     */
+    public void drawRegion(BitmapRegionDecoder decoder, Canvas canvas, Rect region, Paint paint) {
+        Matrix orientation = getOrientationMatrix();
+        Matrix inverse = new Matrix();
+        orientation.invert(inverse);
+
+        RectF sourceRegion = new RectF(region);
+        inverse.mapRect(sourceRegion);
+        Rect sourceRect = new Rect();
+        sourceRegion.roundOut(sourceRect);
+        if (!sourceRect.intersect(0, 0, mSourceWidth, mSourceHeight)) {
+            return;
+        }
+
+        Bitmap pixels = decoder.decodeRegion(sourceRect, null);
+        if (pixels == null) {
+            return;
+        }
+        Matrix matrix = new Matrix();
+        matrix.setTranslate(sourceRect.left, sourceRect.top);
+        matrix.postConcat(orientation);
+        canvas.drawBitmap(pixels, matrix, paint);
+        pixels.recycle();
+    }
+
+    /**
+     * @return the transform from source pixels to image coordinates, oriented and density scaled
+     */
+    private Matrix getOrientationMatrix() {
+        Matrix matrix = Utility.orientationMatrix(mSourceWidth, mSourceHeight, mRotationInDegrees);
+        matrix.postScale((float)getWidth() / getPixelWidth(), (float)getHeight() / getPixelHeight());
+        return matrix;
+    }
+}
@@ -0,0 +1,235 @@
+package com.wwimmo.imageeditor;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.LruCache;
+
+import com.facebook.react.bridge.ReactContext;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Full resolution tiles of the background for zoomed in viewports.
+ *
+ * The source is cut into tiles of {@link #TILE_SIZE} decoded pixels at power of two sample
+ * sizes. Drawing picks the sample size matching the zoom, draws the cached tiles covering the
+ * screen and queues the missing ones, which are read through a {@link BitmapRegionDecoder} on
+ * the decode thread one at a time. The queue only ever holds the tiles of the latest frame, so
+ * tiles scrolled away before their turn are never decoded. Tiles are kept in an LRU cache
+ * bounded in bytes, so memory use does not depend on the image size.
+ *
+ * Everything but the decoding itself happens on the UI thread.
+ */
+public class BackgroundTiles {
+    private static final int TILE_SIZE = 256;
+    private static final int CACHE_BYTES = 24 * 1024 * 1024;
+
+    private final BackgroundSource mSource;
+    private final Executor mExecutor;
+    private final ReactContext mContext;
+    private final Runnable mOnTileLoaded;
+    private final LruCache<Long, Bitmap> mCache = new LruCache<Long, Bitmap>(CACHE_BYTES) {
+        @Override
+        protected int sizeOf(Long key, Bitmap tile) {
+            return tile.getByteCount();
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, Long key, Bitmap oldTile, Bitmap newTile) {
+            if (oldTile != newTile) {
+                oldTile.recycle();
+            }
+        }
+    };
+
+    // Tiles waiting to be decoded, replaced on every frame
+    private final ArrayDeque<Tile> mQueue = new ArrayDeque<Tile>();
+    private final ArrayList<Tile> mMissing = new ArrayList<Tile>();
+    private boolean mDecodeScheduled = false;
+    private volatile long mDecodingKey = -1;
+    private volatile boolean mReleased = false;
+    // Only touched on the decode thread
+    private BitmapRegionDecoder mDecoder;
+    private volatile boolean mUnsupported = false;
+
+    private final Matrix mScreenToSource = new Matrix(), mTileMatrix = new Matrix();
+    private final RectF mVisible = new RectF();
+
+    private static class Tile {
+        final long key;
+        final int sampleSize;
+        final Rect region;
+
+        Tile(long key, int sampleSize, Rect region) {
+            this.key = key;
+            this.sampleSize = sampleSize;
+            this.region = region;
+        }
+    }
+
+    /**
+     * @param onTileLoaded run on the UI thread whenever a queued tile is ready to be drawn
+     */
+    public BackgroundTiles(BackgroundSource source, Executor executor, ReactContext context, Runnable onTileLoaded) {
+        mSource = source;
+        mExecutor = executor;
+        mContext = context;
+        mOnTileLoaded = onTileLoaded;
+    }
+
+    public BackgroundSource getSource() {
+        return mSource;
+    }
+
+    /**
+     * @return false if the source format can not be decoded by region
+     */
+    public boolean isSupported() {
+        return !mUnsupported;
+    }
+
+    /**
+     * Draws the cached tiles covering the screen and queues the missing ones.
+     *
+     * @param sourceToScreen transform from source pixels, before orientation, to the screen
+     */
+    public void draw(Canvas canvas, Matrix sourceToScreen, int width, int height, Paint paint) {
+        if (mUnsupported || !sourceToScreen.invert(mScreenToSource)) {
+            return;
+        }
+        int sampleSize = getSampleSize(sourceToScreen.mapRadius(1));
+        int tileSize = TILE_SIZE * sampleSize;
+        int sourceWidth = mSource.getSourceWidth(), sourceHeight = mSource.getSourceHeight();
+
+        mVisible.set(0, 0, width, height);
+        mScreenToSource.mapRect(mVisible);
+        if (!mVisible.intersect(0, 0, sourceWidth, sourceHeight)) {
+            return;
+        }
+        int left = (int)(mVisible.left / tileSize), top = (int)(mVisible.top / tileSize);
+        int right = (int)Math.ceil(mVisible.right / tileSize), bottom = (int)Math.ceil(mVisible.bottom / tileSize);
+
+        mMissing.clear();
+        for (int row = top; row < bottom; row++) {
+            for (int column = left; column < right; column++) {
+                long key = ((long)sampleSize << 40) | ((long)row << 20) | column;
+                Rect region = new Rect(column * tileSize, row * tileSize,
+                        Math.min(sourceWidth, (column + 1) * tileSize), Math.min(sourceHeight, (row + 1) * tileSize));
+                Bitmap tile = mCache.get(key);
+                if (tile == null) {
+                    if (key != mDecodingKey) {
+                        mMissing.add(new Tile(key, sampleSize, region));
+                    }
+                    continue;
+                }
+                // Decoded tiles are about region / sampleSize large, scaled back to the region here
+                mTileMatrix.setScale((float)region.width() / tile.getWidth(), (float)region.height() / tile.getHeight());
+                mTileMatrix.postTranslate(region.left, region.top);
+                mTileMatrix.postConcat(sourceToScreen);
+                canvas.drawBitmap(tile, mTileMatrix, paint);
+            }
+        }
+
+        synchronized (mQueue) {
+            mQueue.clear();
+            mQueue.addAll(mMissing);
+            if (!mQueue.isEmpty() && !mDecodeScheduled) {
+                mDecodeScheduled = true;
+                mExecutor.execute(mDecodeNext);
+            }
+        }
+        mMissing.clear();
+    }
+
+    /**
+     * @return the largest power of two sample size whose decoded pixels still cover at most one
+     *         screen pixel
+     */
+    private static int getSampleSize(float screenPixelsPerSourcePixel) {
+        int sampleSize = 1;
+        while (sampleSize * 2 * screenPixelsPerSourcePixel <= 1) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Decodes one queued tile, and schedules itself again while tiles are left so that other
+     * work on the decode thread is not held up by a long queue.
+     */
+    private final Runnable mDecodeNext = new Runnable() {
+        @Override
+        public void run() {
+            final Tile tile;
+            synchronized (mQueue) {
+                tile = mQueue.poll();
+                if (tile == null || mReleased) {
+                    mDecodeScheduled = false;
+                    return;
+                }
+                mDecodingKey = tile.key;
+            }
+
+            final Bitmap bitmap = decode(tile);
+            mContext.runOnUiQueueThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (mDecodingKey == tile.key) {
+                        mDecodingKey = -1;
+                    }
+                    if (bitmap == null) {
+                        return;
+                    }
+                    if (mReleased) {
+                        bitmap.recycle();
+                        return;
+                    }
+                    mCache.put(tile.key, bitmap);
+                    mOnTileLoaded.run();
+                }
+            });
+            mExecutor.execute(this);
+        }
+    };
+
+    private Bitmap decode(Tile tile) {
+        if (mDecoder == null) {
+            mDecoder = mSource.newRegionDecoder();
+            if (mDecoder == null) {
+                mUnsupported = true;
+                return null;
+            }
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = tile.sampleSize;
+        return mDecoder.decodeRegion(tile.region, options);
+    }
+
+    /**
+     * Drops the cached tiles and closes the decoder once the decode thread is done with it.
+     */
+    public void release() {
+        mReleased = true;
+        synchronized (mQueue) {
+            mQueue.clear();
+        }
+        mCache.evictAll();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mDecoder != null) {
+                    mDecoder.recycle();
+                    mDecoder = null;
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,158 @@
+package com.wwimmo.imageeditor;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import com.facebook.react.bridge.ReadableMap;
+import com.wwimmo.imageeditor.utils.PngEncoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+import javax.annotation.Nullable;
+
+/**
+ * Codec and quality of an exported image.
+ *
+ * Formats are "png", "jpg" (or "jpeg"), "webp" for lossy and "webp-lossless" for lossless WebP,
+ * any other type is exported as JPEG.
+ * Lossless WebP needs Android 10, older versions fall back to lossy WebP at quality 100.
+ * The PNG "fast" mode uses a low deflate level, which encodes several times faster than
+ * {@link Bitmap#compress} at the cost of larger files.
+ */
+public class ExportOptions {
+    public static final String PNG = "png", JPEG = "jpg", WEBP = "webp", WEBP_LOSSLESS = "webp-lossless";
+
+    private final String mFormat;
+    private final int mQuality;
+    private final boolean mFast;
+
+    public ExportOptions(String format, int quality, boolean fast) {
+        mFormat = format;
+        mQuality = Math.max(0, Math.min(100, quality));
+        mFast = fast;
+    }
+
+    /**
+     * @param imageType format passed to the save/transferToBase64 calls, used unless
+     *                  {@code options} has a "format"
+     * @param options optional { format, quality, fast }
+     */
+    public static ExportOptions from(String imageType, @Nullable ReadableMap options) {
+        String format = normalizeFormat(imageType);
+        if (options != null && options.hasKey("format") && !options.isNull("format")) {
+            format = normalizeFormat(options.getString("format"));
+        }
+        int quality = options != null && options.hasKey("quality") && !options.isNull("quality")
+                ? options.getInt("quality")
+                : defaultQuality(format);
+        boolean fast = options != null && options.hasKey("fast") && options.getBoolean("fast");
+        return new ExportOptions(format, quality, fast);
+    }
+
+    /**
+     * Every type that is not one of the known formats is exported as JPEG, as it always was.
+     */
+    private static String normalizeFormat(String format) {
+        if (format == null) {
+            return JPEG;
+        }
+        switch (format) {
+            case PNG:
+            case WEBP:
+            case WEBP_LOSSLESS:
+                return format;
+            case "jpeg":
+            case JPEG:
+            default:
+                return JPEG;
+        }
+    }
+
+    private static int defaultQuality(String format) {
+        switch (format) {
+            case JPEG:
+            case WEBP:
+                return 90;
+            default:
+                return 100;
+        }
+    }
+
+    public String getFormat() {
+        return mFormat;
+    }
+
+    public int getQuality() {
+        return mQuality;
+    }
+
+    public String getExtension() {
+        return mFormat.equals(WEBP_LOSSLESS) ? ".webp" : "." + mFormat;
+    }
+
+    /**
+     * @return whether the format keeps the alpha channel of transparent exports
+     */
+    public boolean supportsTransparency() {
+        return !mFormat.equals(JPEG);
+    }
+
+    /**
+     * @return whether the image can be encoded band by band with a {@link PngEncoder}
+     */
+    public boolean supportsBandedEncoding() {
+        return mFormat.equals(PNG);
+    }
+
+    /**
+     * @return the deflate level used by {@link PngEncoder}
+     */
+    public int getDeflateLevel() {
+        return mFast ? Deflater.BEST_SPEED : Deflater.DEFAULT_COMPRESSION;
+    }
+
+    /**
+     * Encodes {@code bitmap} into {@code out}, the stream is left open.
+     *
+     * @return false if the bitmap could not be encoded
+     */
+    public boolean encode(Bitmap bitmap, boolean transparent, OutputStream out) throws IOException {
+        if (mFormat.equals(PNG) && mFast) {
+            PngEncoder.encode(bitmap, transparent, getDeflateLevel(), out);
+            return true;
+        }
+        return bitmap.compress(getCompressFormat(), getCompressQuality(), out);
+    }
+
+    @SuppressWarnings("deprecation")
+    private Bitmap.CompressFormat getCompressFormat() {
+        switch (mFormat) {
+            case JPEG:
+                return Bitmap.CompressFormat.JPEG;
+            case WEBP:
+            case WEBP_LOSSLESS:
+                // The explicit lossy/lossless formats only exist from Android 11 on
+                if (Build.VERSION.SDK_INT >= 30) {
+                    return Bitmap.CompressFormat.valueOf(mFormat.equals(WEBP) ? "WEBP_LOSSY" : "WEBP_LOSSLESS");
+                }
+                return Bitmap.CompressFormat.WEBP;
+            default:
+                return Bitmap.CompressFormat.PNG;
+        }
+    }
+
+    private int getCompressQuality() {
+        if (mFormat.equals(WEBP_LOSSLESS)) {
+            // Quality is the compression effort for lossless WebP, and 100 selects lossless
+            // mode for the legacy WEBP format on Android 10
+            return Build.VERSION.SDK_INT >= 30 ? mQuality : 100;
+        }
+        if (mFormat.equals(WEBP) && Build.VERSION.SDK_INT < 30) {
+            // 100 would switch the legacy WEBP format to lossless on Android 10
+            return Math.min(mQuality, 99);
+        }
+        return mQuality;
+    }
+}
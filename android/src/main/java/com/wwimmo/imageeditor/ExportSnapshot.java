@@ -0,0 +1,239 @@
+package com.wwimmo.imageeditor;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Picture;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Region;
+import android.os.Build;
+
+import com.wwimmo.imageeditor.utils.Utility;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * Copy of everything an exported image is made of, taken on the UI thread.
+ *
+ * Taking the snapshot only copies the drawing layer and records text and entities into
+ * pictures, so the expensive part, compositing the full size image and encoding it, can run
+ * on a background thread while the editor keeps changing. The few entity bitmaps the
+ * pictures draw are copies, the originals belong to the shared pool.
+ *
+ * Exports cropped to the background image keep the strokes instead of the drawing layer and
+ * replay them at the image resolution, so they stay sharp however large the image is. The
+ * editor only holds a background decoded at view size, so these exports read the background
+ * from its source again, one band at a time.
+ */
+public class ExportSnapshot {
+    private final int mWidth, mHeight;
+    // Background images are replaced, never modified, so the current one can be shared
+    private final Bitmap mBackgroundImage;
+    private final BackgroundSource mBackgroundSource;
+    private BitmapRegionDecoder mRegionDecoder;
+    private Bitmap mFullBackgroundImage;
+    private final String mBitmapContentMode;
+    private final Bitmap mDrawing;
+    private final List<SketchData> mStrokes;
+    private final Picture mTextUnderSketch, mTextOverSketch;
+    private final List<Bitmap> mEntityBitmaps;
+    private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final RectF mStrokeBounds = new RectF(), mEraserBounds = new RectF();
+
+    /**
+     * @param drawing drawing layer, copied, or null if {@code strokes} are replayed instead
+     * @param strokes strokes in drawing order, only used without {@code drawing}; they must not
+     *                change anymore, strokes still being drawn have to be copied
+     * @param textUnderSketch recorded text drawn below the strokes, or null
+     * @param textOverSketch recorded text and entities drawn above the strokes, or null
+     * @param entityBitmaps copies of the entity bitmaps {@code textOverSketch} draws, owned by
+     *                      the snapshot from now on
+     */
+    public ExportSnapshot(int width, int height, Bitmap backgroundImage, @Nullable BackgroundSource backgroundSource, String bitmapContentMode,
+                          @Nullable Bitmap drawing, @Nullable List<SketchData> strokes,
+                          Picture textUnderSketch, Picture textOverSketch,
+                          List<Bitmap> entityBitmaps) {
+        mWidth = width;
+        mHeight = height;
+        mBackgroundImage = backgroundImage;
+        mBackgroundSource = backgroundSource;
+        mBitmapContentMode = bitmapContentMode;
+        mDrawing = drawing != null ? drawing.copy(Bitmap.Config.ARGB_8888, false) : null;
+        mStrokes = strokes;
+        mTextUnderSketch = textUnderSketch;
+        mTextOverSketch = textOverSketch;
+        mEntityBitmaps = entityBitmaps;
+    }
+
+    public int getOutputWidth(boolean cropToImageSize) {
+        if (mBackgroundImage == null || !cropToImageSize) {
+            return mWidth;
+        }
+        return mBackgroundSource != null ? mBackgroundSource.getWidth() : mBackgroundImage.getWidth();
+    }
+
+    public int getOutputHeight(boolean cropToImageSize) {
+        if (mBackgroundImage == null || !cropToImageSize) {
+            return mHeight;
+        }
+        return mBackgroundSource != null ? mBackgroundSource.getHeight() : mBackgroundImage.getHeight();
+    }
+
+    /**
+     * Composites the whole snapshot, may be called from any thread.
+     */
+    public Bitmap render(boolean transparent, boolean includeImage, boolean cropToImageSize) {
+        Bitmap bitmap = Bitmap.createBitmap(
+                getOutputWidth(cropToImageSize),
+                getOutputHeight(cropToImageSize),
+                Bitmap.Config.ARGB_8888);
+        renderBand(new Canvas(bitmap), 0, transparent, includeImage, cropToImageSize);
+        return bitmap;
+    }
+
+    /**
+     * Composites the rows of the output image starting at {@code top} into {@code canvas},
+     * which must be as wide as the output and cleared. May be called from any thread.
+     */
+    public void renderBand(Canvas canvas, int top, boolean transparent, boolean includeImage, boolean cropToImageSize) {
+        int outputWidth = getOutputWidth(cropToImageSize), outputHeight = getOutputHeight(cropToImageSize);
+        canvas.save();
+        canvas.translate(0, -top);
+        canvas.drawARGB(transparent ? 0 : 255, 255, 255, 255);
+
+        if (mBackgroundImage != null && includeImage) {
+            if (cropToImageSize && mBackgroundSource != null) {
+                drawFullBackground(canvas, top);
+            } else {
+                canvas.drawBitmap(mBackgroundImage,
+                        Utility.fillImageMatrix(mBackgroundImage.getWidth(), mBackgroundImage.getHeight(), getBackgroundRotation(),
+                                outputWidth, outputHeight, mBitmapContentMode),
+                        mPaint);
+            }
+        }
+
+        if (mDrawing == null) {
+            // The view fills the output image, so everything drawn in view coordinates is replayed under one transform
+            Matrix viewToImage = new Matrix();
+            viewToImage.setRectToRect(new RectF(0, 0, mWidth, mHeight),
+                    Utility.fillImage(mWidth, mHeight, outputWidth, outputHeight, "AspectFill"),
+                    Matrix.ScaleToFit.FILL);
+            canvas.concat(viewToImage);
+        }
+        drawLayers(canvas);
+        canvas.restore();
+    }
+
+    /**
+     * Draws the rows of the original size background covered by the band, the output has the
+     * size of the background so it maps 1:1.
+     */
+    private void drawFullBackground(Canvas canvas, int top) {
+        if (mRegionDecoder == null && mFullBackgroundImage == null) {
+            mRegionDecoder = mBackgroundSource.newRegionDecoder();
+            if (mRegionDecoder == null) {
+                // Formats without region decoding are decoded in full once
+                mFullBackgroundImage = mBackgroundSource.decodeFull();
+            }
+        }
+
+        if (mRegionDecoder != null) {
+            Rect band = new Rect(0, top, mBackgroundSource.getWidth(),
+                    Math.min(mBackgroundSource.getHeight(), top + canvas.getHeight()));
+            mBackgroundSource.drawRegion(mRegionDecoder, canvas, band, mPaint);
+        } else {
+            Bitmap bitmap = mFullBackgroundImage != null ? mFullBackgroundImage : mBackgroundImage;
+            canvas.drawBitmap(bitmap,
+                    Utility.fillImageMatrix(bitmap.getWidth(), bitmap.getHeight(), getBackgroundRotation(),
+                            mBackgroundSource.getWidth(), mBackgroundSource.getHeight(), "ScaleToFill"),
+                    mPaint);
+        }
+    }
+
+    private int getBackgroundRotation() {
+        return mBackgroundSource != null ? mBackgroundSource.getRotationInDegrees() : 0;
+    }
+
+    private void drawLayers(Canvas canvas) {
+        if (mTextUnderSketch != null) {
+            canvas.drawPicture(mTextUnderSketch);
+        }
+
+        if (mDrawing != null) {
+            canvas.drawBitmap(mDrawing, 0, 0, mPaint);
+        } else {
+            drawStrokes(canvas);
+        }
+
+        if (mTextOverSketch != null) {
+            canvas.drawPicture(mTextOverSketch);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void drawStrokes(Canvas canvas) {
+        mEraserBounds.setEmpty();
+        for (SketchData stroke: mStrokes) {
+            if (stroke.strokeColor == Color.TRANSPARENT && stroke.getBounds(mStrokeBounds)) {
+                mEraserBounds.union(mStrokeBounds);
+            }
+        }
+        if (mEraserBounds.isEmpty()) {
+            drawStrokes(canvas, false);
+            return;
+        }
+
+        // Erasers clear pixels, so the area they touch needs a layer of its own to not erase the
+        // background. The rest of the strokes are drawn straight onto the canvas.
+        canvas.save();
+        if (Build.VERSION.SDK_INT >= 26) {
+            canvas.clipOutRect(mEraserBounds);
+        } else {
+            canvas.clipRect(mEraserBounds, Region.Op.DIFFERENCE);
+        }
+        drawStrokes(canvas, false);
+        canvas.restore();
+
+        int saveCount = canvas.saveLayer(mEraserBounds, null, Canvas.ALL_SAVE_FLAG);
+        drawStrokes(canvas, true);
+        canvas.restoreToCount(saveCount);
+    }
+
+    @SuppressWarnings("deprecation")
+    private void drawStrokes(Canvas canvas, boolean includeErasers) {
+        for (SketchData stroke: mStrokes) {
+            // Skips strokes outside the band or layer being rendered
+            if ((includeErasers || stroke.strokeColor != Color.TRANSPARENT)
+                    && stroke.getBounds(mStrokeBounds) && !canvas.quickReject(mStrokeBounds, Canvas.EdgeType.AA)) {
+                stroke.draw(canvas);
+            }
+        }
+    }
+
+    /**
+     * Frees the copied drawing layer, the entity bitmaps and the decoded background once the
+     * snapshot has been rendered.
+     */
+    public void recycle() {
+        if (mDrawing != null) {
+            mDrawing.recycle();
+        }
+        for (Bitmap bitmap: mEntityBitmaps) {
+            bitmap.recycle();
+        }
+        if (mRegionDecoder != null) {
+            mRegionDecoder.recycle();
+            mRegionDecoder = null;
+        }
+        if (mFullBackgroundImage != null) {
+            mFullBackgroundImage.recycle();
+            mFullBackgroundImage = null;
+        }
+    }
+}
@@ -5,15 +5,19 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Matrix;
 import android.graphics.Paint;
+import android.graphics.Picture;
 import android.graphics.PointF;
 import android.graphics.PorterDuff;
 import android.graphics.Rect;
-import android.graphics.Matrix;
-import android.media.ExifInterface;
+import android.graphics.RectF;
 import android.os.Environment;
+import android.os.SystemClock;
 import android.util.Base64;
+import android.util.Base64OutputStream;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.View;
 import android.view.ScaleGestureDetector;
 import android.view.GestureDetector;
@@ -21,21 +25,36 @@ import android.view.MotionEvent;
 import androidx.core.view.GestureDetectorCompat;
 
 import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Callback;
+import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.uimanager.ThemedReactContext;
 import com.facebook.react.uimanager.events.RCTEventEmitter;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.lang.Math;
 
+import javax.annotation.Nullable;
+
+import com.wwimmo.imageeditor.utils.BitmapPool;
 import com.wwimmo.imageeditor.utils.CanvasText;
+import com.wwimmo.imageeditor.utils.PngEncoder;
 import com.wwimmo.imageeditor.utils.Utility;
 import com.wwimmo.imageeditor.utils.layers.Font;
 import com.wwimmo.imageeditor.utils.layers.Layer;
@@ -55,8 +74,10 @@ import com.wwimmo.imageeditor.utils.gestureDetectors.RotateGestureDetector;
 
 public class ImageEditor extends View {
     // Data
-    private ArrayList<SketchData> mPaths = new ArrayList<SketchData>();
+    private final PathStore mPaths = new PathStore();
     private SketchData mCurrentPath = null;
+    private final StrokeIndex mStrokeIndex = new StrokeIndex();
+    private final RasterCheckpoints mCheckpoints = new RasterCheckpoints();
 
     // Gesture Detection
     private ScaleGestureDetector mScaleGestureDetector;
@@ -72,6 +93,7 @@ public class ImageEditor extends View {
     private float mEntityBorderStrokeWidth = 1;
     private float mEntityStrokeWidth = 5;
     private int mEntityStrokeColor = Color.BLACK;
+    private final Paint mEntityPaint = new Paint();
 
     // Text
     private ArrayList<CanvasText> mArrCanvasText = new ArrayList<CanvasText>();
@@ -79,12 +101,55 @@ public class ImageEditor extends View {
     private ArrayList<CanvasText> mArrSketchOnText = new ArrayList<CanvasText>();
     private Typeface mTypeface;
 
+    // Strokes
+    private float mSimplifyTolerance = 0;
+    private final StrokeInputFilter mInputFilter = new StrokeInputFilter();
+
+    // Native touch capture
+    private boolean mNativeTouchCapture = false, mTouchEnabled = true, mStrokeEndIncludesPoints = true;
+    private int mStrokeColor = Color.BLACK;
+    private float mStrokeWidth = 3;
+    private int mCapturePointerId = MotionEvent.INVALID_POINTER_ID;
+    private float[] mCapturePoints = new float[32];
+    private double[] mCaptureTimes = new double[16];
+    private final Random mRandom = new Random();
+    // Scale and rotation in degrees the touch path of JS undoes, applied around the first sample
+    private float mTouchScale = 1, mTouchRotation = 0;
+    private float mCaptureStartX, mCaptureStartY;
+
     // Bitmap
     private Bitmap mDrawingBitmap = null, mTranslucentDrawingBitmap = null;
     private Bitmap mBackgroundImage;
     private Canvas mDrawingCanvas = null, mTranslucentDrawingCanvas = null;
-    private int mOriginalBitmapWidth, mOriginalBitmapHeight;
+    private BackgroundSource mBackgroundSource;
     private String mBitmapContentMode;
+    // View sized copy of the background drawn by onDraw, and what it was built from
+    private Bitmap mScaledBackground, mScaledBackgroundSource;
+    private String mScaledBackgroundMode;
+    private final Paint mScaledBackgroundPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+    // Bumped by every background load, so that only the latest one is applied
+    private volatile int mBackgroundGeneration = 0;
+    private int mAppliedBackgroundGeneration = 0;
+    // Options of the decode running on the decode thread, to cancel it once a newer load starts
+    private volatile BitmapFactory.Options mBackgroundDecodeOptions;
+
+    // Zoom and pan
+    private final Viewport mViewport = new Viewport();
+    private boolean mZoomEnabled = false;
+    private boolean mViewportGesture = false;
+    private float mGestureFocusX, mGestureFocusY, mGestureSpan;
+    private BackgroundTiles mBackgroundTiles;
+    private final Matrix mSourceToScreen = new Matrix();
+    private final RectF mVisibleRect = new RectF();
+    private final RectF mEntityBounds = new RectF();
+    private final ArrayList<SketchData> mVisiblePaths = new ArrayList<SketchData>();
+    private final Rect mScreenInvalidateRect = new Rect();
+    private final Runnable mTileLoadedCallback = new Runnable() {
+        @Override
+        public void run() {
+            invalidate();
+        }
+    };
 
     // General
     private Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
@@ -92,6 +157,22 @@ public class ImageEditor extends View {
     private ThemedReactContext mContext;
     private boolean mDisableHardwareAccelerated = false;
     private boolean mNeedsFullRedraw = true;
+    private boolean mPathsUpdateScheduled = false;
+    private int mDispatchedPathsCount = -1;
+    private final Rect mInvalidateRect = new Rect();
+    private final Rect mBatchInvalidateRect = new Rect();
+    private final Rect mRedrawRect = new Rect();
+    private final RectF mRedrawBounds = new RectF();
+    private final ArrayList<SketchData> mRedrawPaths = new ArrayList<SketchData>();
+
+    // Exports are composited and encoded one at a time, in the order they were requested
+    private static final ExecutorService sExportExecutor = Executors.newSingleThreadExecutor();
+    private static final ExecutorService sDecodeExecutor = Executors.newSingleThreadExecutor();
+    // PNG exports larger than this are rendered and encoded in bands of about BANDED_EXPORT_BAND_BYTES
+    private static final long BANDED_EXPORT_MIN_BYTES = 16 * 1024 * 1024;
+    private static final long BANDED_EXPORT_BAND_BYTES = 4 * 1024 * 1024;
+    // Largest buffer reserved up front for base64 text, it grows past this when needed
+    private static final long BASE64_MAX_INITIAL_BYTES = 16 * 1024 * 1024;
 
     public ImageEditor(ThemedReactContext context) {
         super(context);
@@ -106,57 +187,205 @@ public class ImageEditor extends View {
         setOnTouchListener(mOnTouchListener);
     }
 
-    public String getBase64(String format, boolean transparent, boolean includeImage, boolean includeText, boolean cropToImageSize) {
-        WritableMap event = Arguments.createMap();
-        Bitmap bitmap = createImage(format.equals("png") && transparent, includeImage, includeText, cropToImageSize);
-        ByteArrayOutputStream byteArrayOS = new ByteArrayOutputStream();
+    /**
+     * Encodes the current content as base64 on the export thread and passes it to the callback
+     * as (error, base64, { encodeTime, size }).
+     */
+    public void getBase64(final ExportOptions options, final boolean transparent, final boolean includeImage, boolean includeText, final boolean cropToImageSize, final Callback callback) {
+        final ExportSnapshot snapshot = takeExportSnapshot(includeText, cropToImageSize);
+        sExportExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // Compressed bytes go straight into the base64 encoder, only the base64 text is ever held in full
+                    AsciiBuffer base64 = new AsciiBuffer(estimateBase64Size(snapshot, cropToImageSize));
+                    OutputStream out = new Base64OutputStream(base64, Base64.DEFAULT);
+                    WritableMap stats = encodeSnapshot(snapshot, options, transparent, includeImage, cropToImageSize, out);
+                    out.close();
+                    callback.invoke(null, base64.toAsciiString(), stats);
+                } catch (Exception e) {
+                    callback.invoke(e.getMessage(), null);
+                } catch (OutOfMemoryError e) {
+                    callback.invoke("Not enough memory to export the image as base64", null);
+                } finally {
+                    snapshot.recycle();
+                }
+            }
+        });
+    }
+
+    /**
+     * Renders and encodes a snapshot into {@code out}, on the export thread.
+     *
+     * @return the encode time in ms and the encoded size in bytes
+     */
+    private static WritableMap encodeSnapshot(ExportSnapshot snapshot, ExportOptions options, boolean transparent,
+                                              boolean includeImage, boolean cropToImageSize, OutputStream out) throws IOException {
+        boolean keepAlpha = transparent && options.supportsTransparency();
+        int width = snapshot.getOutputWidth(cropToImageSize), height = snapshot.getOutputHeight(cropToImageSize);
+        CountingOutputStream counter = new CountingOutputStream(out);
+        long encodeTime;
+        if (options.supportsBandedEncoding() && (long)width * height * 4 > BANDED_EXPORT_MIN_BYTES) {
+            encodeTime = encodeBands(snapshot, options, keepAlpha, includeImage, cropToImageSize, width, height, counter);
+        } else {
+            // Other formats are compressed from one bitmap of the whole image
+            Bitmap bitmap;
+            try {
+                bitmap = snapshot.render(keepAlpha, includeImage, cropToImageSize);
+            } catch (OutOfMemoryError e) {
+                throw new IOException("Not enough memory to export a " + width + "x" + height + " image as "
+                        + options.getFormat() + ", export it as png or without cropToImageSize");
+            }
+            try {
+                long start = SystemClock.elapsedRealtime();
+                if (!options.encode(bitmap, keepAlpha, counter)) {
+                    throw new IOException("Failed to encode image as " + options.getFormat());
+                }
+                encodeTime = SystemClock.elapsedRealtime() - start;
+            } finally {
+                bitmap.recycle();
+            }
+        }
+        counter.flush();
+
+        WritableMap stats = Arguments.createMap();
+        stats.putDouble("encodeTime", encodeTime);
+        stats.putDouble("size", counter.getCount());
+        return stats;
+    }
 
-        bitmap.compress(
-                format.equals("png") ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG,
-                format.equals("png") ? 100 : 90,
-                byteArrayOS);
-        return Base64.encodeToString(byteArrayOS.toByteArray(), Base64.DEFAULT);
+    /**
+     * Renders the output a band of rows at a time and streams each band into a PNG encoder, so
+     * memory use depends on the band size instead of the image size.
+     *
+     * @return the time spent encoding in ms
+     */
+    private static long encodeBands(ExportSnapshot snapshot, ExportOptions options, boolean keepAlpha, boolean includeImage,
+                                    boolean cropToImageSize, int width, int height, OutputStream out) throws IOException {
+        int bandHeight = (int)Math.max(1, Math.min(height, BANDED_EXPORT_BAND_BYTES / (width * 4L)));
+        Bitmap band;
+        try {
+            band = Bitmap.createBitmap(width, bandHeight, Bitmap.Config.ARGB_8888);
+        } catch (OutOfMemoryError e) {
+            throw new IOException("Not enough memory to export a " + width + "x" + height + " image as " + options.getFormat());
+        }
+        try {
+            Canvas canvas = new Canvas(band);
+            PngEncoder encoder = new PngEncoder(out, width, height, keepAlpha, options.getDeflateLevel());
+            long encodeTime = 0;
+            for (int top = 0; top < height; top += bandHeight) {
+                band.eraseColor(Color.TRANSPARENT);
+                snapshot.renderBand(canvas, top, keepAlpha, includeImage, cropToImageSize);
+
+                long start = SystemClock.elapsedRealtime();
+                encoder.writeRows(band, Math.min(bandHeight, height - top));
+                encodeTime += SystemClock.elapsedRealtime() - start;
+            }
+            long start = SystemClock.elapsedRealtime();
+            encoder.finish();
+            return encodeTime + SystemClock.elapsedRealtime() - start;
+        } finally {
+            band.recycle();
+        }
     }
 
-    private Bitmap createImage(boolean transparent, boolean includeImage, boolean includeText, boolean cropToImageSize) {
-        Bitmap bitmap = Bitmap.createBitmap(
-                mBackgroundImage != null && cropToImageSize ? mOriginalBitmapWidth : getWidth(),
-                mBackgroundImage != null && cropToImageSize ? mOriginalBitmapHeight : getHeight(),
-                Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(bitmap);
-        canvas.drawARGB(transparent ? 0 : 255, 255, 255, 255);
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long mCount = 0;
 
-        if (mBackgroundImage != null && includeImage) {
-            Rect targetRect = new Rect();
-            Utility.fillImage(mBackgroundImage.getWidth(), mBackgroundImage.getHeight(),
-                    bitmap.getWidth(), bitmap.getHeight(), mBitmapContentMode).roundOut(targetRect);
-            canvas.drawBitmap(mBackgroundImage, null, targetRect, null);
+        CountingOutputStream(OutputStream out) {
+            super(out);
         }
 
-        if (includeText) {
-            for(CanvasText text: mArrSketchOnText) {
-                canvas.drawText(text.text, text.drawPosition.x + text.lineOffset.x, text.drawPosition.y + text.lineOffset.y, text.paint);
-            }
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            mCount++;
         }
 
-        if (mBackgroundImage != null && cropToImageSize) {
-            Rect targetRect = new Rect();
-            Utility.fillImage(mDrawingBitmap.getWidth(), mDrawingBitmap.getHeight(),
-                    bitmap.getWidth(), bitmap.getHeight(), "AspectFill").roundOut(targetRect);
-            canvas.drawBitmap(mDrawingBitmap, null, targetRect, mPaint);
-        } else {
-            canvas.drawBitmap(mDrawingBitmap, 0, 0, mPaint);
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            mCount += len;
+        }
+
+        long getCount() {
+            return mCount;
+        }
+    }
+
+    /**
+     * @return a first guess of the base64 text length, about one character per output pixel
+     */
+    private static int estimateBase64Size(ExportSnapshot snapshot, boolean cropToImageSize) {
+        long pixels = (long)snapshot.getOutputWidth(cropToImageSize) * snapshot.getOutputHeight(cropToImageSize);
+        return (int)Math.max(64 * 1024, Math.min(BASE64_MAX_INITIAL_BYTES, pixels));
+    }
+
+    /**
+     * Collects the ASCII output of a {@link Base64OutputStream}, one byte per character, and
+     * builds the string from its buffer once.
+     */
+    private static class AsciiBuffer extends ByteArrayOutputStream {
+        private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+        AsciiBuffer(int initialSize) {
+            super(initialSize);
         }
 
-        if (includeText) {
-            for(CanvasText text: mArrTextOnSketch) {
+        String toAsciiString() {
+            return new String(buf, 0, count, US_ASCII);
+        }
+    }
+
+    /**
+     * Captures the current content for an export, must be called on the UI thread.
+     *
+     * Exports cropped to the background image replay the strokes at the image resolution
+     * instead of scaling up the view sized drawing layer.
+     */
+    private ExportSnapshot takeExportSnapshot(boolean includeText, boolean cropToImageSize) {
+        Picture textUnderSketch = null;
+        if (includeText && !mArrSketchOnText.isEmpty()) {
+            textUnderSketch = new Picture();
+            Canvas canvas = textUnderSketch.beginRecording(getWidth(), getHeight());
+            for(CanvasText text: mArrSketchOnText) {
                 canvas.drawText(text.text, text.drawPosition.x + text.lineOffset.x, text.drawPosition.y + text.lineOffset.y, text.paint);
             }
+            textUnderSketch.endRecording();
         }
 
-        drawAllEntities(canvas);
+        Picture textOverSketch = null;
+        ArrayList<Bitmap> entityBitmaps = new ArrayList<Bitmap>();
+        if ((includeText && !mArrTextOnSketch.isEmpty()) || !mEntities.isEmpty()) {
+            textOverSketch = new Picture();
+            Canvas canvas = textOverSketch.beginRecording(getWidth(), getHeight());
+            if (includeText) {
+                for(CanvasText text: mArrTextOnSketch) {
+                    canvas.drawText(text.text, text.drawPosition.x + text.lineOffset.x, text.drawPosition.y + text.lineOffset.y, text.paint);
+                }
+            }
+            Paint paint = getEntityPaint();
+            for (int i = 0; i < mEntities.size(); i++) {
+                mEntities.get(i).drawSnapshot(canvas, paint, entityBitmaps);
+            }
+            textOverSketch.endRecording();
+        }
 
-        return bitmap;
+        if (mBackgroundImage != null && cropToImageSize) {
+            ArrayList<SketchData> strokes = new ArrayList<SketchData>(mPaths.size());
+            for (SketchData path: mPaths) {
+                if (path != mCurrentPath) {
+                    // Finished strokes are never modified, only unlinked when deleted
+                    strokes.add(path);
+                } else if (!path.isTranslucent) {
+                    strokes.add(path.copy());
+                }
+            }
+            return new ExportSnapshot(getWidth(), getHeight(), mBackgroundImage, mBackgroundSource, mBitmapContentMode,
+                    null, strokes, textUnderSketch, textOverSketch, entityBitmaps);
+        }
+        return new ExportSnapshot(getWidth(), getHeight(), mBackgroundImage, mBackgroundSource, mBitmapContentMode,
+                mDrawingBitmap, null, textUnderSketch, textOverSketch, entityBitmaps);
     }
 
     /**
@@ -166,6 +395,8 @@ public class ImageEditor extends View {
      **/
     public void clear() {
         mPaths.clear();
+        mStrokeIndex.clear();
+        mCheckpoints.clear();
         mCurrentPath = null;
         mNeedsFullRedraw = true;
         invalidateCanvas(true);
@@ -173,11 +404,13 @@ public class ImageEditor extends View {
 
     public void newPath(int id, int strokeColor, float strokeWidth) {
         mCurrentPath = new SketchData(id, strokeColor, strokeWidth);
+        mInputFilter.reset();
         if (strokeColor != Color.TRANSPARENT) {
             mEntityStrokeColor = strokeColor;
         }
         mEntityStrokeWidth = Utility.convertPxToDpAsFloat(mContext.getResources().getDisplayMetrics(), strokeWidth);
         mPaths.add(mCurrentPath);
+        mStrokeIndex.insert(mCurrentPath);
         boolean isErase = strokeColor == Color.TRANSPARENT;
         if (isErase && mDisableHardwareAccelerated == false) {
             mDisableHardwareAccelerated = true;
@@ -187,80 +420,324 @@ public class ImageEditor extends View {
     }
 
     public void addPoint(float x, float y, boolean isMove) {
-        if (mSelectedEntity == null && (findEntityAtPoint(x, y) == null || isMove)) {
-            Rect updateRect = mCurrentPath.addPoint(new PointF(x, y));
-            if (mCurrentPath.isTranslucent) {
-                mTranslucentDrawingCanvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.MULTIPLY);
-                mCurrentPath.draw(mTranslucentDrawingCanvas);
-            } else {
-                mCurrentPath.drawLastPoint(mDrawingCanvas);
+        addPoint(x, y, isMove, StrokeInputFilter.UNKNOWN_TIME);
+    }
+
+    /**
+     * @param time uptime in milliseconds when the point was touched, or
+     *             {@link StrokeInputFilter#UNKNOWN_TIME}
+     */
+    public void addPoint(float x, float y, boolean isMove, long time) {
+        if (acceptPoint(x, y, isMove, time)) {
+            appendPointToCurrentPath(x, y, mInvalidateRect);
+            redrawTranslucentPath();
+            invalidateDocumentRect(mInvalidateRect);
+        }
+    }
+
+    /**
+     * Applies a batch of samples in one pass and invalidates the union of their dirty areas once.
+     *
+     * @param points interleaved x/y coordinates
+     * @param times optional uptime in milliseconds when every sample was touched, used by the input filter
+     */
+    public void addPoints(float[] points, int pointCount, boolean isMove, @Nullable double[] times) {
+        Rect batchRect = mBatchInvalidateRect;
+        batchRect.setEmpty();
+        for (int i = 0; i < pointCount; i++) {
+            float x = points[i * 2], y = points[i * 2 + 1];
+            if (acceptPoint(x, y, isMove, times != null ? (long)times[i] : StrokeInputFilter.UNKNOWN_TIME)) {
+                appendPointToCurrentPath(x, y, mInvalidateRect);
+                batchRect.union(mInvalidateRect);
             }
-            invalidate(updateRect);
+        }
+        if (!batchRect.isEmpty()) {
+            redrawTranslucentPath();
+            invalidateDocumentRect(batchRect);
         }
     }
 
-    public void addPath(int id, int strokeColor, float strokeWidth, ArrayList<PointF> points) {
-        if (strokeColor != Color.TRANSPARENT) {
-            mEntityStrokeColor = strokeColor;
+    private boolean acceptPoint(float x, float y, boolean isMove, long time) {
+        if (mCurrentPath == null || mSelectedEntity != null || !(isMove || findEntityAtPoint(x, y) == null)) {
+            return false;
         }
+        return !mInputFilter.isEnabled() || mInputFilter.accept(x, y, time);
+    }
 
-        boolean exist = false;
-        for(SketchData data: mPaths) {
-            if (data.id == id) {
-                exist = true;
-                break;
-            }
+    private void appendPointToCurrentPath(float x, float y, Rect updateRect) {
+        mCurrentPath.addPoint(x, y, updateRect);
+        if (!mCurrentPath.isTranslucent) {
+            mCurrentPath.drawLastPoint(mDrawingCanvas);
         }
+    }
+
+    private void redrawTranslucentPath() {
+        if (mCurrentPath.isTranslucent) {
+            mTranslucentDrawingCanvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.MULTIPLY);
+            mCurrentPath.draw(mTranslucentDrawingCanvas);
+        }
+    }
 
-        if (!exist) {
-            SketchData newPath = new SketchData(id, strokeColor, strokeWidth, points);
+    public void addPath(int id, int strokeColor, float strokeWidth, float[] points, int pointCount) {
+        if (strokeColor != Color.TRANSPARENT) {
+            mEntityStrokeColor = strokeColor;
+        }
+
+        if (!mPaths.contains(id)) {
+            SketchData newPath = new SketchData(id, strokeColor, strokeWidth, points, pointCount);
             mPaths.add(newPath);
+            mStrokeIndex.insert(newPath);
             boolean isErase = strokeColor == Color.TRANSPARENT;
             if (isErase && mDisableHardwareAccelerated == false) {
                 mDisableHardwareAccelerated = true;
                 setLayerType(View.LAYER_TYPE_SOFTWARE, null);
             }
             newPath.draw(mDrawingCanvas);
+            onPathCommitted();
             invalidateCanvas(true);
         }
     }
 
-    public void deletePath(int id) {
-        int index = -1;
-        for(int i = 0; i<mPaths.size(); i++) {
-            if (mPaths.get(i).id == id) {
-                index = i;
-                break;
+    /**
+     * Adds many strokes at once: all of them are stored and indexed first, then rasterized
+     * in one pass with a single pathsUpdate event.
+     */
+    public void addPaths(List<SketchData> paths) {
+        boolean added = false;
+        for (SketchData newPath: paths) {
+            if (mPaths.contains(newPath.id)) {
+                continue;
             }
+            if (newPath.strokeColor != Color.TRANSPARENT) {
+                mEntityStrokeColor = newPath.strokeColor;
+            } else if (mDisableHardwareAccelerated == false) {
+                mDisableHardwareAccelerated = true;
+                setLayerType(View.LAYER_TYPE_SOFTWARE, null);
+            }
+            mPaths.add(newPath);
+            mStrokeIndex.insert(newPath);
+            added = true;
         }
 
-        if (index > -1) {
-            mPaths.remove(index);
-            mNeedsFullRedraw = true;
+        if (added) {
+            if (mDrawingCanvas != null && !mNeedsFullRedraw) {
+                for (SketchData newPath: paths) {
+                    if (mPaths.get(newPath.id) == newPath) {
+                        newPath.draw(mDrawingCanvas);
+                    }
+                }
+                onPathCommitted();
+            } else {
+                mNeedsFullRedraw = true;
+            }
+            invalidateCanvas(true);
+        }
+    }
+
+    public void deletePath(int id) {
+        SketchData removed = mPaths.remove(id);
+        if (removed != null) {
+            mStrokeIndex.remove(removed);
+            RasterCheckpoints.Checkpoint checkpoint = mCheckpoints.onStrokeDeleted(removed.sequence);
+            if (mNeedsFullRedraw || mDrawingCanvas == null) {
+                mNeedsFullRedraw = true;
+            } else if (checkpoint != null) {
+                restoreCheckpoint(checkpoint);
+            } else {
+                mCheckpoints.onRestoreMissed();
+                if (removed.getBounds(mRedrawBounds)) {
+                    redrawRegion(mRedrawBounds);
+                } else {
+                    mNeedsFullRedraw = true;
+                }
+            }
             invalidateCanvas(true);
         }
     }
 
+    /**
+     * Restores the drawing layer from a checkpoint and replays the strokes committed after it.
+     */
+    private void restoreCheckpoint(RasterCheckpoints.Checkpoint checkpoint) {
+        mCheckpoints.restore(checkpoint, mDrawingCanvas);
+
+        SketchData first = mPaths.getLast();
+        while (first != null && first.previous != null && first.previous.sequence > checkpoint.getSequence()) {
+            first = first.previous;
+        }
+        for (SketchData path = first; path != null; path = path.next) {
+            if (path.sequence > checkpoint.getSequence() && (path != mCurrentPath || !path.isTranslucent)) {
+                path.draw(mDrawingCanvas);
+            }
+        }
+    }
+
+    /**
+     * Lets the checkpoint ring snapshot the drawing layer once every committed stroke is rasterized.
+     */
+    private void onPathCommitted() {
+        if (mCurrentPath == null && !mNeedsFullRedraw && !mPaths.isEmpty()) {
+            mCheckpoints.onStrokeCommitted(mDrawingBitmap, mPaths.getLast().sequence);
+        }
+    }
+
+    /**
+     * Exports committed strokes with packed points, the stroke being drawn is left out.
+     *
+     * @param ids only export these strokes, or all of them if null
+     * @param sinceVersion only export strokes changed after this version, 0 for all
+     * @return the strokes and the ids removed since {@code sinceVersion}; an id is never in both,
+     *         a stroke removed and added again since is only in the strokes
+     */
+    public WritableMap exportPaths(@Nullable int[] ids, int sinceVersion) {
+        boolean reset = sinceVersion < mPaths.getResetVersion();
+        WritableArray paths = Arguments.createArray();
+        if (ids != null) {
+            for (int id: ids) {
+                SketchData path = mPaths.get(id);
+                if (path != null && path != mCurrentPath && (reset || path.version > sinceVersion)) {
+                    paths.pushMap(exportPath(path));
+                }
+            }
+        } else {
+            for (SketchData path: mPaths) {
+                if (path != mCurrentPath && (reset || path.version > sinceVersion)) {
+                    paths.pushMap(exportPath(path));
+                }
+            }
+        }
+
+        WritableArray removedIds = Arguments.createArray();
+        if (!reset) {
+            for (int id: mPaths.getRemovedIdsSince(sinceVersion)) {
+                removedIds.pushInt(id);
+            }
+        }
+
+        WritableMap result = Arguments.createMap();
+        result.putInt("version", mPaths.getVersion());
+        result.putBoolean("reset", reset);
+        result.putArray("paths", paths);
+        result.putArray("removedIds", removedIds);
+        return result;
+    }
+
+    private WritableMap exportPath(SketchData path) {
+        WritableArray points = Arguments.createArray();
+        int pointCount = path.getPointCount();
+        for (int i = 0; i < pointCount; i++) {
+            points.pushDouble(path.getPointX(i));
+            points.pushDouble(path.getPointY(i));
+        }
+        WritableMap stroke = Arguments.createMap();
+        stroke.putInt("id", path.id);
+        stroke.putInt("color", path.strokeColor);
+        stroke.putDouble("width", path.strokeWidth);
+        stroke.putArray("points", points);
+        return stroke;
+    }
+
+    public WritableMap getUndoStats() {
+        WritableMap stats = Arguments.createMap();
+        stats.putInt("checkpointHits", mCheckpoints.getHits());
+        stats.putInt("checkpointMisses", mCheckpoints.getMisses());
+        stats.putInt("checkpointCount", mCheckpoints.getCount());
+        return stats;
+    }
+
+    /**
+     * Clears {@code region} of the drawing layer and replays only the strokes intersecting it.
+     */
+    private void redrawRegion(RectF region) {
+        if (mCurrentPath != null) {
+            // The stroke being drawn is only re-indexed when it ends
+            mStrokeIndex.update(mCurrentPath);
+            mPaths.touch(mCurrentPath);
+        }
+
+        Rect clip = mRedrawRect;
+        region.roundOut(clip);
+        mRedrawBounds.set(clip);
+        mStrokeIndex.query(mRedrawBounds, mRedrawPaths);
+
+        mDrawingCanvas.save();
+        mDrawingCanvas.clipRect(clip);
+        mDrawingCanvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.MULTIPLY);
+        for (SketchData path: mRedrawPaths) {
+            // A translucent stroke in progress lives on the translucent layer until it ends
+            if (path != mCurrentPath || !path.isTranslucent) {
+                path.draw(mDrawingCanvas);
+            }
+        }
+        mDrawingCanvas.restore();
+        mRedrawPaths.clear();
+    }
+
     public void end() {
         if (mCurrentPath != null) {
+            // The last sample of a stroke is always kept
+            if (mInputFilter.hasPendingPoint()) {
+                appendPointToCurrentPath(mInputFilter.getPendingX(), mInputFilter.getPendingY(), mInvalidateRect);
+                redrawTranslucentPath();
+                invalidateDocumentRect(mInvalidateRect);
+                mInputFilter.reset();
+            }
+            boolean simplified = false;
+            if (mSimplifyTolerance > 0) {
+                int receivedPoints = mCurrentPath.getPointCount();
+                // The kept points are a subset of the received ones, so these bounds cover both versions
+                mCurrentPath.getBounds(mRedrawBounds);
+                int keptPoints = mCurrentPath.simplify(mSimplifyTolerance);
+                onStrokeSimplified(mCurrentPath.id, receivedPoints, keptPoints);
+                simplified = keptPoints < receivedPoints;
+            }
+            mStrokeIndex.update(mCurrentPath);
+            mPaths.touch(mCurrentPath);
+            if (simplified && !mCurrentPath.isTranslucent && !mNeedsFullRedraw && mDrawingCanvas != null) {
+                // Opaque strokes were drawn from the received points, repaint them as stored
+                redrawRegion(mRedrawBounds);
+                invalidateDocumentRect(mRedrawRect);
+            }
             if (mCurrentPath.isTranslucent) {
                 mCurrentPath.draw(mDrawingCanvas);
                 mTranslucentDrawingCanvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.MULTIPLY);
             }
             mCurrentPath = null;
+            onPathCommitted();
         }
     }
 
+    /**
+     * @return the committed strokes whose bounds intersect {@code rect}, in drawing order
+     */
+    public ArrayList<SketchData> getPathsInRect(RectF rect) {
+        ArrayList<SketchData> paths = new ArrayList<SketchData>();
+        mStrokeIndex.query(rect, paths);
+        return paths;
+    }
+
+    /**
+     * @return the committed strokes passing within {@code radius} pixels of (x, y), in drawing order
+     */
+    public ArrayList<SketchData> getPathsNearPoint(float x, float y, float radius) {
+        ArrayList<SketchData> paths = new ArrayList<SketchData>();
+        mStrokeIndex.queryNear(x, y, radius, paths);
+        return paths;
+    }
+
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
 
         if (getWidth() > 0 && getHeight() > 0) {
-            mDrawingBitmap = Bitmap.createBitmap(getWidth(), getHeight(),
-                    Bitmap.Config.ARGB_8888);
+            mViewport.setSize(getWidth(), getHeight());
+            ensureBackgroundResolution(getWidth(), getHeight());
+            // The layers are redrawn from the strokes, the old ones are reused for the new size if they fit
+            releaseDrawingBitmaps();
+            mCheckpoints.clear();
+            mDrawingBitmap = BitmapPool.getInstance().acquire(getWidth(), getHeight());
             mDrawingCanvas = new Canvas(mDrawingBitmap);
-            mTranslucentDrawingBitmap = Bitmap.createBitmap(getWidth(), getHeight(),
-                    Bitmap.Config.ARGB_8888);
+            mTranslucentDrawingBitmap = BitmapPool.getInstance().acquire(getWidth(), getHeight());
             mTranslucentDrawingCanvas = new Canvas(mTranslucentDrawingBitmap);
 
             for(CanvasText text: mArrCanvasText) {
@@ -297,12 +774,14 @@ public class ImageEditor extends View {
             mNeedsFullRedraw = false;
         }
 
-        if (mBackgroundImage != null) {
-            Rect dstRect = new Rect();
-            mSketchCanvas.getClipBounds(dstRect);
-            mSketchCanvas.drawBitmap(mBackgroundImage, null,
-                    Utility.fillImage(mBackgroundImage.getWidth(), mBackgroundImage.getHeight(), dstRect.width(), dstRect.height(), mBitmapContentMode),
-                    null);
+        if (!mViewport.isIdentity()) {
+            drawZoomed(mSketchCanvas);
+            return;
+        }
+
+        Bitmap background = getScaledBackground();
+        if (background != null) {
+            mSketchCanvas.drawBitmap(background, 0, 0, null);
         }
 
         for(CanvasText text: mArrSketchOnText) {
@@ -326,29 +805,191 @@ public class ImageEditor extends View {
         }
     }
 
+    /**
+     * Draws everything under the viewport transform. Strokes are replayed from the index
+     * instead of scaling up the view sized drawing layer, and only those on screen are drawn.
+     */
+    private void drawZoomed(Canvas canvas) {
+        Bitmap background = getScaledBackground();
+        if (background != null) {
+            canvas.save();
+            canvas.concat(mViewport.getMatrix());
+            canvas.drawBitmap(background, 0, 0, mScaledBackgroundPaint);
+            canvas.restore();
+            drawBackgroundTiles(canvas);
+        }
+
+        mViewport.getVisibleRect(mVisibleRect);
+        canvas.save();
+        canvas.concat(mViewport.getMatrix());
+        canvas.clipRect(mVisibleRect);
+
+        for(CanvasText text: mArrSketchOnText) {
+            canvas.drawText(text.text, text.drawPosition.x + text.lineOffset.x, text.drawPosition.y + text.lineOffset.y, text.paint);
+        }
+
+        drawVisibleStrokes(canvas);
+
+        for(CanvasText text: mArrTextOnSketch) {
+            canvas.drawText(text.text, text.drawPosition.x + text.lineOffset.x, text.drawPosition.y + text.lineOffset.y, text.paint);
+        }
+
+        if (!mEntities.isEmpty()) {
+            Paint paint = getEntityPaint();
+            for (int i = 0; i < mEntities.size(); i++) {
+                MotionEntity entity = mEntities.get(i);
+                entity.getBounds(mEntityBounds);
+                if (RectF.intersects(mEntityBounds, mVisibleRect)) {
+                    entity.draw(canvas, paint);
+                }
+            }
+        }
+        canvas.restore();
+    }
+
+    @SuppressWarnings("deprecation")
+    private void drawVisibleStrokes(Canvas canvas) {
+        mStrokeIndex.query(mVisibleRect, mVisiblePaths);
+        boolean hasEraser = mCurrentPath != null && mCurrentPath.strokeColor == Color.TRANSPARENT;
+        for (int i = 0; i < mVisiblePaths.size() && !hasEraser; i++) {
+            hasEraser = mVisiblePaths.get(i).strokeColor == Color.TRANSPARENT;
+        }
+
+        // Erasers clear pixels, so they need a layer of their own to not erase the background
+        int saveCount = hasEraser
+                ? canvas.saveLayer(mVisibleRect.left, mVisibleRect.top, mVisibleRect.right, mVisibleRect.bottom, null, Canvas.ALL_SAVE_FLAG)
+                : canvas.save();
+        for (SketchData path: mVisiblePaths) {
+            if (path != mCurrentPath) {
+                path.draw(canvas);
+            }
+        }
+        // The stroke being drawn is only indexed once it ends
+        if (mCurrentPath != null) {
+            mCurrentPath.draw(canvas);
+        }
+        canvas.restoreToCount(saveCount);
+        mVisiblePaths.clear();
+    }
+
+    /**
+     * Draws full resolution tiles over the background once the zoom enlarges the pixels of the
+     * view sized copy, the copy stays visible where tiles are still being decoded.
+     */
+    private void drawBackgroundTiles(Canvas canvas) {
+        if (mBackgroundSource == null || mBackgroundImage == null) {
+            return;
+        }
+        if (mBackgroundTiles == null || !mBackgroundSource.isSameSource(mBackgroundTiles.getSource())) {
+            if (mBackgroundTiles != null) {
+                mBackgroundTiles.release();
+            }
+            mBackgroundTiles = new BackgroundTiles(mBackgroundSource, sDecodeExecutor, mContext, mTileLoadedCallback);
+        }
+
+        int sourceWidth = mBackgroundSource.getSourceWidth(), sourceHeight = mBackgroundSource.getSourceHeight();
+        mSourceToScreen.set(Utility.fillImageMatrix(sourceWidth, sourceHeight, getBackgroundRotation(),
+                getWidth(), getHeight(), mBitmapContentMode));
+        mSourceToScreen.postConcat(mViewport.getMatrix());
+        float screenPixelsPerBackgroundPixel = mSourceToScreen.mapRadius(1) * sourceWidth / mBackgroundImage.getWidth();
+        if (screenPixelsPerBackgroundPixel > 1 && mBackgroundTiles.isSupported()) {
+            mBackgroundTiles.draw(canvas, mSourceToScreen, getWidth(), getHeight(), mScaledBackgroundPaint);
+        }
+    }
+
+    /**
+     * Invalidates the screen area showing {@code rect}, given in document coordinates.
+     */
+    private void invalidateDocumentRect(Rect rect) {
+        if (mViewport.isIdentity()) {
+            invalidate(rect);
+        } else {
+            mViewport.mapToScreen(rect, mScreenInvalidateRect);
+            invalidate(mScreenInvalidateRect);
+        }
+    }
+
+    public void setZoomConfiguration(ReadableMap zoomConfiguration) {
+        if (zoomConfiguration.hasKey("maxZoom")) {
+            mViewport.setMaxScale((float)zoomConfiguration.getDouble("maxZoom"));
+            invalidate();
+        }
+        if (zoomConfiguration.hasKey("enabled")) {
+            mZoomEnabled = zoomConfiguration.getBoolean("enabled");
+            if (!mZoomEnabled) {
+                resetZoom();
+            }
+        }
+    }
+
+    public void resetZoom() {
+        mViewport.reset();
+        invalidate();
+    }
+
     private void invalidateCanvas(boolean shouldDispatchEvent) {
-        if (shouldDispatchEvent) {
-            WritableMap event = Arguments.createMap();
-            event.putInt("pathsUpdate", mPaths.size());
-            mContext.getJSModule(RCTEventEmitter.class).receiveEvent(
-                    getId(),
-                    "topChange",
-                    event);
+        if (shouldDispatchEvent && !mPathsUpdateScheduled) {
+            // Coalesced to at most one event per frame, sent only if the count changed
+            mPathsUpdateScheduled = true;
+            Choreographer.getInstance().postFrameCallback(mPathsUpdateCallback);
         }
         invalidate();
     }
 
-    private int exifToDegrees(int exifOrientation) {
-        if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_90) {
-            return 90;
-        } else if(exifOrientation == ExifInterface.ORIENTATION_NORMAL) { 
-            return 0;
-        } else if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_180) {
-            return 180;
-        } else if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_270) {
-            return 270;
+    private final Choreographer.FrameCallback mPathsUpdateCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mPathsUpdateScheduled = false;
+            int pathsCount = mPaths.size();
+            if (pathsCount != mDispatchedPathsCount) {
+                mDispatchedPathsCount = pathsCount;
+                WritableMap event = Arguments.createMap();
+                event.putInt("pathsUpdate", pathsCount);
+                mContext.getJSModule(RCTEventEmitter.class).receiveEvent(
+                        getId(),
+                        "topChange",
+                        event);
+            }
+        }
+    };
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (mPathsUpdateScheduled) {
+            Choreographer.getInstance().removeFrameCallback(mPathsUpdateCallback);
+            mPathsUpdateScheduled = false;
+        }
+    }
+
+    /**
+     * Returns the layer and entity bitmaps to the shared pool once the view is dropped, so the
+     * next editor opened reuses them.
+     */
+    public void release() {
+        // A background still being decoded is cancelled, or discarded when it arrives
+        nextBackgroundGeneration();
+        releaseDrawingBitmaps();
+        mCheckpoints.clear();
+        BitmapPool.getInstance().release(mScaledBackground);
+        mScaledBackground = null;
+        mScaledBackgroundSource = null;
+        if (mBackgroundTiles != null) {
+            mBackgroundTiles.release();
+            mBackgroundTiles = null;
         }
-        return 0;
+        for (MotionEntity entity : mEntities) {
+            entity.release();
+        }
+    }
+
+    private void releaseDrawingBitmaps() {
+        BitmapPool.getInstance().release(mDrawingBitmap);
+        BitmapPool.getInstance().release(mTranslucentDrawingBitmap);
+        mDrawingBitmap = null;
+        mDrawingCanvas = null;
+        mTranslucentDrawingBitmap = null;
+        mTranslucentDrawingCanvas = null;
     }
 
     /**
@@ -393,10 +1034,64 @@ public class ImageEditor extends View {
         }
     }
 
+    public void onStrokeSimplified(int id, int receivedPoints, int keptPoints) {
+        WritableMap stroke = Arguments.createMap();
+        stroke.putInt("id", id);
+        stroke.putInt("receivedPoints", receivedPoints);
+        stroke.putInt("keptPoints", keptPoints);
+        WritableMap event = Arguments.createMap();
+        event.putMap("strokeSimplified", stroke);
+        mContext.getJSModule(RCTEventEmitter.class).receiveEvent(
+                getId(),
+                "topChange",
+                event);
+    }
+
+    public void onImageLoaded(boolean success, @Nullable BackgroundSource source, long decodeTime) {
+        WritableMap image = Arguments.createMap();
+        image.putBoolean("success", success);
+        if (success && source != null) {
+            image.putInt("width", source.getWidth());
+            image.putInt("height", source.getHeight());
+        }
+        image.putDouble("decodeTime", decodeTime);
+        WritableMap event = Arguments.createMap();
+        event.putMap("imageLoaded", image);
+        mContext.getJSModule(RCTEventEmitter.class).receiveEvent(
+                getId(),
+                "topChange",
+                event);
+    }
+
+    public void onStrokeEnd(SketchData path) {
+        WritableMap stroke;
+        if (mStrokeEndIncludesPoints) {
+            stroke = exportPath(path);
+        } else {
+            stroke = Arguments.createMap();
+            stroke.putInt("id", path.id);
+            stroke.putInt("color", path.strokeColor);
+            stroke.putDouble("width", path.strokeWidth);
+        }
+        WritableMap event = Arguments.createMap();
+        event.putMap("strokeEnd", stroke);
+        mContext.getJSModule(RCTEventEmitter.class).receiveEvent(
+                getId(),
+                "topChange",
+                event);
+    }
+
     public void onSaved(boolean success, String path) {
+        onSaved(success, path, null);
+    }
+
+    public void onSaved(boolean success, String path, @Nullable ReadableMap stats) {
         WritableMap event = Arguments.createMap();
         event.putBoolean("success", success);
         event.putString("path", path);
+        if (stats != null) {
+            event.merge(stats);
+        }
         mContext.getJSModule(RCTEventEmitter.class).receiveEvent(
                 getId(),
                 "topChange",
@@ -443,76 +1138,263 @@ public class ImageEditor extends View {
         }
     }
 
-    public void save(String format, String folder, String filename, boolean transparent, boolean includeImage, boolean includeText, boolean cropToImageSize) {
+    public void setStrokeConfiguration(ReadableMap strokeConfiguration) {
+        if (strokeConfiguration.hasKey("simplifyTolerance")) {
+            mSimplifyTolerance = (float)strokeConfiguration.getDouble("simplifyTolerance");
+        }
+        if (strokeConfiguration.hasKey("checkpointInterval")) {
+            mCheckpoints.setInterval(strokeConfiguration.getInt("checkpointInterval"));
+        }
+        if (strokeConfiguration.hasKey("checkpointMemoryLimit")) {
+            mCheckpoints.setMaxBytes((long)strokeConfiguration.getDouble("checkpointMemoryLimit"));
+        }
+        if (strokeConfiguration.hasKey("minPointDistance")) {
+            mInputFilter.setMinDistance((float)strokeConfiguration.getDouble("minPointDistance"));
+        }
+        if (strokeConfiguration.hasKey("minPointInterval")) {
+            mInputFilter.setMinInterval((long)strokeConfiguration.getDouble("minPointInterval"));
+        }
+        if (strokeConfiguration.hasKey("cornerAngle")) {
+            mInputFilter.setCornerAngle((float)strokeConfiguration.getDouble("cornerAngle"));
+        }
+        if (strokeConfiguration.hasKey("nativeTouchCapture")) {
+            mNativeTouchCapture = strokeConfiguration.getBoolean("nativeTouchCapture");
+        }
+        if (strokeConfiguration.hasKey("touchScale") && strokeConfiguration.getDouble("touchScale") > 0) {
+            mTouchScale = (float)strokeConfiguration.getDouble("touchScale");
+        }
+        if (strokeConfiguration.hasKey("touchRotation")) {
+            mTouchRotation = (float)strokeConfiguration.getDouble("touchRotation");
+        }
+        if (strokeConfiguration.hasKey("strokeEndIncludesPoints")) {
+            mStrokeEndIncludesPoints = strokeConfiguration.getBoolean("strokeEndIncludesPoints");
+        }
+        if (strokeConfiguration.hasKey("touchEnabled")) {
+            mTouchEnabled = strokeConfiguration.getBoolean("touchEnabled");
+        }
+        if (strokeConfiguration.hasKey("strokeColor")) {
+            mStrokeColor = strokeConfiguration.getInt("strokeColor");
+        }
+        if (strokeConfiguration.hasKey("strokeWidth")) {
+            mStrokeWidth = (float)strokeConfiguration.getDouble("strokeWidth");
+        }
+    }
+
+    public void save(final ExportOptions options, String folder, String filename, final boolean transparent, final boolean includeImage, boolean includeText, final boolean cropToImageSize) {
         File f = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES) + File.separator + folder);
         boolean success = f.exists() ? true : f.mkdirs();
         if (success) {
-            Bitmap bitmap = createImage(format.equals("png") && transparent, includeImage, includeText, cropToImageSize);
-
-            File file = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES) +
-                    File.separator + folder + File.separator + filename + (format.equals("png") ? ".png" : ".jpg"));
-            try {
-                bitmap.compress(
-                        format.equals("png") ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG,
-                        format.equals("png") ? 100 : 90,
-                        new FileOutputStream(file));
-                this.onSaved(true, file.getPath());
-            } catch (Exception e) {
-                e.printStackTrace();
-                onSaved(false, null);
-            }
+            // Only the snapshot is taken on the UI thread, compositing and encoding run in the background
+            final ExportSnapshot snapshot = takeExportSnapshot(includeText, cropToImageSize);
+            final File file = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES) +
+                    File.separator + folder + File.separator + filename + options.getExtension());
+            sExportExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final WritableMap stats = writeImage(snapshot, file, options, transparent, includeImage, cropToImageSize);
+                    mContext.runOnUiQueueThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            onSaved(stats != null, stats != null ? file.getPath() : null, stats);
+                        }
+                    });
+                }
+            });
         } else {
             Log.e("SketchCanvas", "Failed to create folder!");
             onSaved(false, null);
         }
     }
 
-    public boolean openImageFile(String filename, String directory, String mode) {
-        if(filename != null) {
-            int res = mContext.getResources().getIdentifier(
-                    filename.lastIndexOf('.') == -1 ? filename : filename.substring(0, filename.lastIndexOf('.')),
-                    "drawable",
-                    mContext.getPackageName());
-            BitmapFactory.Options bitmapOptions = new BitmapFactory.Options();
-            Bitmap bitmap = null;
-            
-            try {
-                if (res == 0) {
-                    String convertedDirectory = directory == null ? "" : directory;
-                    String path = filename + convertedDirectory;
-                    ExifInterface exif = new ExifInterface(path);
-                    int exifOrientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
-                    int rotationInDegrees = exifToDegrees(exifOrientation);
-                    Bitmap tempBitmap = BitmapFactory.decodeFile(new File(path).toString(), bitmapOptions);
-
-                    // Let's rotate the loaded image into the correct orientation :-)
-                    Matrix matrix = new Matrix();
-                    if (exifOrientation != 0f) {
-                        matrix.preRotate(rotationInDegrees);
-                        bitmap = Bitmap.createBitmap(tempBitmap, 0, 0, tempBitmap.getWidth(), tempBitmap.getHeight(), matrix, true);
-                    } else {
-                        bitmap = tempBitmap;
-                    }
-                } else {
-                    bitmap = BitmapFactory.decodeResource(mContext.getResources(), res);
+    /**
+     * @return the encode stats, or null if the image could not be written
+     */
+    @Nullable
+    private static WritableMap writeImage(ExportSnapshot snapshot, File file, ExportOptions options, boolean transparent, boolean includeImage, boolean cropToImageSize) {
+        OutputStream out = null;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+            WritableMap stats = encodeSnapshot(snapshot, options, transparent, includeImage, cropToImageSize, out);
+            out.close();
+            out = null;
+            return stats;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        } catch (OutOfMemoryError e) {
+            // Fails the save instead of the export thread, which has to report it
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Already failing
                 }
-            } catch (Exception e) {
-                Log.e("SKETCHCANVAS", "exception in openImageFile when creating ExifInterface: " + e);
-                bitmap = BitmapFactory.decodeFile(new File(filename, directory == null ? "" : directory).toString(), bitmapOptions);
             }
+            snapshot.recycle();
+        }
+    }
 
-            if(bitmap != null) {
-                mBackgroundImage = bitmap;
-                mOriginalBitmapHeight = bitmap.getHeight();
-                mOriginalBitmapWidth = bitmap.getWidth();
-                mBitmapContentMode = mode;
+    /**
+     * Starts decoding a background image on the decode thread. The current background stays
+     * until the new one is ready, and a load superseded by a later call is dropped.
+     */
+    public void openImageFile(final String filename, final String directory, final String mode) {
+        if (filename == null) {
+            return;
+        }
+        final int generation = nextBackgroundGeneration();
+        final int targetWidth = getBackgroundTargetWidth(), targetHeight = getBackgroundTargetHeight();
+        sDecodeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != mBackgroundGeneration) {
+                    return;
+                }
+                long start = SystemClock.elapsedRealtime();
+                BackgroundSource source = BackgroundSource.open(mContext, filename, directory);
+                // Decoded only as large as the view needs, exports at the original size read the source again
+                Bitmap bitmap = source != null ? decodeBackground(generation, source, targetWidth, targetHeight) : null;
+                onBackgroundDecoded(generation, source, bitmap, mode, SystemClock.elapsedRealtime() - start, true);
+            }
+        });
+    }
 
-                invalidateCanvas(true);
+    /**
+     * Starts a new background load and cancels the decode still running for an older one.
+     *
+     * @return the generation of the new load
+     */
+    @SuppressWarnings("deprecation")
+    private int nextBackgroundGeneration() {
+        int generation = ++mBackgroundGeneration;
+        BitmapFactory.Options options = mBackgroundDecodeOptions;
+        if (options != null) {
+            options.requestCancelDecode();
+        }
+        return generation;
+    }
 
-                return true;
+    /**
+     * Decodes the background on the decode thread, cancelable through
+     * {@link #nextBackgroundGeneration()}.
+     *
+     * @return the bitmap, or null if it could not be decoded or the load was superseded
+     */
+    @Nullable
+    private Bitmap decodeBackground(int generation, BackgroundSource source, int targetWidth, int targetHeight) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        mBackgroundDecodeOptions = options;
+        try {
+            if (generation != mBackgroundGeneration) {
+                // Superseded before the options were published, so nothing could cancel it
+                return null;
+            }
+            return source.decode(targetWidth, targetHeight, options);
+        } finally {
+            mBackgroundDecodeOptions = null;
+        }
+    }
+
+    private void onBackgroundDecoded(final int generation, final BackgroundSource source, final Bitmap bitmap,
+                                     final String mode, final long decodeTime, final boolean isNewImage) {
+        mContext.runOnUiQueueThread(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != mBackgroundGeneration) {
+                    if (bitmap != null) {
+                        bitmap.recycle();
+                    }
+                    return;
+                }
+                mAppliedBackgroundGeneration = generation;
+                if (bitmap != null) {
+                    if (mBackgroundTiles != null && !source.isSameSource(mBackgroundTiles.getSource())) {
+                        mBackgroundTiles.release();
+                        mBackgroundTiles = null;
+                    }
+                    mBackgroundImage = bitmap;
+                    mBackgroundSource = source;
+                    mBitmapContentMode = mode;
+                    invalidateCanvas(true);
+                }
+                if (isNewImage) {
+                    onImageLoaded(bitmap != null, source, decodeTime);
+                }
             }
+        });
+    }
+
+    /**
+     * @return the background scaled, oriented and placed for the current view size, built once
+     *         per view size, content mode and background bitmap and drawn 1:1 afterwards
+     */
+    @Nullable
+    private Bitmap getScaledBackground() {
+        if (mBackgroundImage == null || getWidth() <= 0 || getHeight() <= 0) {
+            return null;
+        }
+        if (mScaledBackground != null && mScaledBackgroundSource == mBackgroundImage
+                && mScaledBackground.getWidth() == getWidth() && mScaledBackground.getHeight() == getHeight()
+                && mBitmapContentMode != null && mBitmapContentMode.equals(mScaledBackgroundMode)) {
+            return mScaledBackground;
+        }
+
+        BitmapPool.getInstance().release(mScaledBackground);
+        mScaledBackground = BitmapPool.getInstance().acquire(getWidth(), getHeight());
+        // The bitmap keeps the pixel layout of the file, its EXIF orientation is part of the transform
+        new Canvas(mScaledBackground).drawBitmap(mBackgroundImage,
+                Utility.fillImageMatrix(mBackgroundImage.getWidth(), mBackgroundImage.getHeight(), getBackgroundRotation(),
+                        getWidth(), getHeight(), mBitmapContentMode),
+                mScaledBackgroundPaint);
+        mScaledBackgroundSource = mBackgroundImage;
+        mScaledBackgroundMode = mBitmapContentMode;
+        return mScaledBackground;
+    }
+
+    private int getBackgroundRotation() {
+        return mBackgroundSource != null ? mBackgroundSource.getRotationInDegrees() : 0;
+    }
+
+    private int getBackgroundTargetWidth() {
+        return getWidth() > 0 ? getWidth() : getResources().getDisplayMetrics().widthPixels;
+    }
+
+    private int getBackgroundTargetHeight() {
+        return getHeight() > 0 ? getHeight() : getResources().getDisplayMetrics().heightPixels;
+    }
+
+    /**
+     * Decodes the background again if the view grew larger than the decoded copy covers.
+     */
+    private void ensureBackgroundResolution(int width, int height) {
+        if (mBackgroundSource == null || mBackgroundImage == null || mAppliedBackgroundGeneration != mBackgroundGeneration) {
+            // Nothing to upgrade, or a load in flight replaces the background anyway
+            return;
+        }
+        int pixelWidth = mBackgroundSource.getPixelWidth(), pixelHeight = mBackgroundSource.getPixelHeight();
+        float scale = Math.min(1, Math.max((float)width / pixelWidth, (float)height / pixelHeight));
+        // Compares the long sides, the decoded bitmap is not rotated
+        int decodedSize = Math.max(mBackgroundImage.getWidth(), mBackgroundImage.getHeight());
+        if (decodedSize + 1 < Math.max(pixelWidth, pixelHeight) * scale) {
+            final int generation = nextBackgroundGeneration();
+            final BackgroundSource source = mBackgroundSource;
+            final String mode = mBitmapContentMode;
+            final int targetWidth = width, targetHeight = height;
+            sDecodeExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (generation != mBackgroundGeneration) {
+                        return;
+                    }
+                    long start = SystemClock.elapsedRealtime();
+                    Bitmap bitmap = decodeBackground(generation, source, targetWidth, targetHeight);
+                    onBackgroundDecoded(generation, source, bitmap, mode, SystemClock.elapsedRealtime() - start, false);
+                }
+            });
         }
-        return false;
     }
 
     public void setCanvasText(ReadableArray aText) {
@@ -798,15 +1680,21 @@ public class ImageEditor extends View {
     }
 
     private void drawAllEntities(Canvas canvas) {
-        Paint paint = new Paint();
-        paint.setColor(mEntityStrokeColor);
-        paint.setStrokeWidth(mEntityStrokeWidth);
-
+        Paint paint = getEntityPaint();
         for (int i = 0; i < mEntities.size(); i++) {
             mEntities.get(i).draw(canvas, paint);
         }
     }
 
+    /**
+     * @return the paint entities are drawn with, reused across frames
+     */
+    private Paint getEntityPaint() {
+        mEntityPaint.setColor(mEntityStrokeColor);
+        mEntityPaint.setStrokeWidth(mEntityStrokeWidth);
+        return mEntityPaint;
+    }
+
     private void handleTranslate(PointF delta) {
         if (mSelectedEntity != null) {
             float newCenterX = mSelectedEntity.absoluteCenterX() + delta.x;
@@ -958,10 +1846,25 @@ public class ImageEditor extends View {
         @Override
         public boolean onTouch(View v, MotionEvent event) {
             if (mScaleGestureDetector != null) {
-                mGestureDetectorCompat.onTouchEvent(event);
-                mScaleGestureDetector.onTouchEvent(event);
-                mRotateGestureDetector.onTouchEvent(event);
-                mMoveGestureDetector.onTouchEvent(event);
+                if (mZoomEnabled) {
+                    handleViewportGesture(event);
+                }
+                // Entities and strokes live in document coordinates
+                MotionEvent documentEvent = event;
+                if (!mViewport.isIdentity()) {
+                    documentEvent = MotionEvent.obtain(event);
+                    documentEvent.transform(mViewport.getInverseMatrix());
+                }
+                mGestureDetectorCompat.onTouchEvent(documentEvent);
+                mScaleGestureDetector.onTouchEvent(documentEvent);
+                mRotateGestureDetector.onTouchEvent(documentEvent);
+                mMoveGestureDetector.onTouchEvent(documentEvent);
+                if (mNativeTouchCapture && !mViewportGesture) {
+                    captureStroke(documentEvent);
+                }
+                if (documentEvent != event) {
+                    documentEvent.recycle();
+                }
                 return true;
             } else {
               return false;
@@ -969,6 +1872,166 @@ public class ImageEditor extends View {
         }
     };
 
+    /**
+     * Zooms and pans the viewport with two fingers while no entity is selected. A stroke
+     * started by the first finger is dropped when the second one comes down.
+     */
+    private void handleViewportGesture(MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_POINTER_DOWN: {
+                if (mSelectedEntity == null && event.getPointerCount() == 2) {
+                    cancelCapturedStroke();
+                    mViewportGesture = true;
+                    updateGestureFocus(event, -1);
+                }
+                break;
+            }
+            case MotionEvent.ACTION_MOVE: {
+                if (mViewportGesture && event.getPointerCount() >= 2) {
+                    float focusX = mGestureFocusX, focusY = mGestureFocusY, span = mGestureSpan;
+                    updateGestureFocus(event, -1);
+                    if (span > 0) {
+                        mViewport.zoomBy(mGestureSpan / span, mGestureFocusX, mGestureFocusY);
+                    }
+                    mViewport.panBy(mGestureFocusX - focusX, mGestureFocusY - focusY);
+                    invalidate();
+                }
+                break;
+            }
+            case MotionEvent.ACTION_POINTER_UP: {
+                if (mViewportGesture && event.getPointerCount() > 2) {
+                    updateGestureFocus(event, event.getActionIndex());
+                }
+                break;
+            }
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL: {
+                // Ends with the last finger, so the remaining one does not start a stroke
+                mViewportGesture = false;
+                break;
+            }
+        }
+    }
+
+    /**
+     * Takes the focus and span of the first two pointers, leaving out {@code skipIndex}.
+     */
+    private void updateGestureFocus(MotionEvent event, int skipIndex) {
+        int first = skipIndex == 0 ? 1 : 0;
+        int second = skipIndex == first + 1 ? first + 2 : first + 1;
+        float x0 = event.getX(first), y0 = event.getY(first), x1 = event.getX(second), y1 = event.getY(second);
+        mGestureFocusX = (x0 + x1) * 0.5f;
+        mGestureFocusY = (y0 + y1) * 0.5f;
+        mGestureSpan = (float)Math.hypot(x1 - x0, y1 - y0);
+    }
+
+    /**
+     * Drops the natively captured stroke in progress, it has not been reported yet.
+     */
+    private void cancelCapturedStroke() {
+        if (mCapturePointerId == MotionEvent.INVALID_POINTER_ID || mCurrentPath == null) {
+            return;
+        }
+        SketchData path = mCurrentPath;
+        mCurrentPath = null;
+        mCapturePointerId = MotionEvent.INVALID_POINTER_ID;
+        mInputFilter.reset();
+        if (path.isTranslucent) {
+            mTranslucentDrawingCanvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.MULTIPLY);
+        }
+
+        // JS never heard of the stroke, so it is unlinked without being logged as removed
+        mPaths.discard(path.id);
+        mStrokeIndex.remove(path);
+        if (mNeedsFullRedraw || mDrawingCanvas == null) {
+            mNeedsFullRedraw = true;
+        } else if (!path.isTranslucent) {
+            // Translucent strokes in progress only live on the translucent layer, cleared above
+            if (path.getBounds(mRedrawBounds)) {
+                redrawRegion(mRedrawBounds);
+            } else {
+                mNeedsFullRedraw = true;
+            }
+        }
+        invalidateCanvas(false);
+    }
+
+    /**
+     * Builds strokes straight from MotionEvents, including their historical samples, so that
+     * ink does not wait for the JS bridge. Only completed strokes are reported, via strokeEnd.
+     */
+    private void captureStroke(MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN: {
+                if (!mTouchEnabled || mSelectedEntity != null || findEntityAtPoint(event.getX(), event.getY()) != null) {
+                    return;
+                }
+                int id;
+                do {
+                    id = mRandom.nextInt(100000000);
+                } while (mPaths.contains(id));
+                mCapturePointerId = event.getPointerId(0);
+                newPath(id, mStrokeColor, mStrokeWidth);
+                mCaptureStartX = event.getX();
+                mCaptureStartY = event.getY();
+                addPoint(event.getX(), event.getY(), true, event.getEventTime());
+                break;
+            }
+            case MotionEvent.ACTION_MOVE: {
+                int pointerIndex = event.findPointerIndex(mCapturePointerId);
+                if (pointerIndex < 0 || mCurrentPath == null) {
+                    return;
+                }
+                int historySize = event.getHistorySize();
+                int pointCount = historySize + 1;
+                if (mCapturePoints.length < pointCount * 2) {
+                    mCapturePoints = new float[pointCount * 2];
+                    mCaptureTimes = new double[pointCount];
+                }
+                for (int i = 0; i < historySize; i++) {
+                    mCapturePoints[i * 2] = event.getHistoricalX(pointerIndex, i);
+                    mCapturePoints[i * 2 + 1] = event.getHistoricalY(pointerIndex, i);
+                    mCaptureTimes[i] = event.getHistoricalEventTime(i);
+                }
+                mCapturePoints[historySize * 2] = event.getX(pointerIndex);
+                mCapturePoints[historySize * 2 + 1] = event.getY(pointerIndex);
+                mCaptureTimes[historySize] = event.getEventTime();
+                mapCapturedPoints(mCapturePoints, pointCount);
+                addPoints(mCapturePoints, pointCount, true, mCaptureTimes);
+                break;
+            }
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL: {
+                if (mCapturePointerId == MotionEvent.INVALID_POINTER_ID || mCurrentPath == null) {
+                    mCapturePointerId = MotionEvent.INVALID_POINTER_ID;
+                    return;
+                }
+                SketchData path = mCurrentPath;
+                end();
+                mCapturePointerId = MotionEvent.INVALID_POINTER_ID;
+                onStrokeEnd(path);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Scales and rotates samples around the first one of the stroke the same way the touch path
+     * of JS does with its scale and rotation props, so that both store the same points.
+     */
+    private void mapCapturedPoints(float[] points, int pointCount) {
+        if (mTouchScale == 1 && mTouchRotation == 0) {
+            return;
+        }
+        double radians = Math.toRadians(-mTouchRotation);
+        float cos = (float)Math.cos(radians), sin = (float)Math.sin(radians);
+        for (int i = 0; i < pointCount; i++) {
+            float dx = points[i * 2] - mCaptureStartX, dy = points[i * 2 + 1] - mCaptureStartY;
+            points[i * 2] = mCaptureStartX + (cos * dx - sin * dy) / mTouchScale;
+            points[i * 2 + 1] = mCaptureStartY + (sin * dx + cos * dy) / mTouchScale;
+        }
+    }
+
     private class TapsListener extends GestureDetector.SimpleOnGestureListener {
         @Override
         public boolean onDoubleTap(MotionEvent e) {
@@ -7,12 +7,14 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.ActivityInfo;
 import android.content.res.Configuration;
+import android.util.Base64;
 import android.util.Log;
 
 import com.facebook.common.logging.FLog;
 import com.facebook.react.bridge.Callback;
 import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableType;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.common.ReactConstants;
 import com.facebook.react.common.MapBuilder;
@@ -21,10 +23,11 @@ import com.facebook.react.uimanager.SimpleViewManager;
 import com.facebook.react.uimanager.ThemedReactContext;
 import com.facebook.react.uimanager.annotations.ReactProp;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.ArrayList;
-import android.graphics.PointF;
 
 import javax.annotation.Nullable;
 
@@ -45,12 +48,17 @@ public class ImageEditorManager extends SimpleViewManager<ImageEditor> {
     public static final int COMMAND_CHANGE_SHAPE_TEXT = 12;
     public static final int COMMAND_UNSELECT_SHAPE = 13;
     public static final int COMMAND_DELETE_SHAPE_BY_ID = 14;
+    public static final int COMMAND_ADD_PATHS = 15;
+    public static final int COMMAND_ADD_POINTS = 16;
+    public static final int COMMAND_RESET_ZOOM = 17;
 
     public static ImageEditor Canvas = null;
 
     private static final String PROPS_LOCAL_SOURCE_IMAGE = "localSourceImage";
     private static final String PROPS_TEXT = "text";
     private static final String PROPS_SHAPE_CONFIGURATION = "shapeConfiguration";
+    private static final String PROPS_STROKE_CONFIGURATION = "strokeConfiguration";
+    private static final String PROPS_ZOOM_CONFIGURATION = "zoomConfiguration";
 
     @Override
     public String getName() {
@@ -63,6 +71,15 @@ public class ImageEditorManager extends SimpleViewManager<ImageEditor> {
         return ImageEditorManager.Canvas;
     }
 
+    @Override
+    public void onDropViewInstance(ImageEditor view) {
+        super.onDropViewInstance(view);
+        view.release();
+        if (ImageEditorManager.Canvas == view) {
+            ImageEditorManager.Canvas = null;
+        }
+    }
+
     @ReactProp(name = PROPS_SHAPE_CONFIGURATION)
     public void setShapeConfiguration(ImageEditor viewContainer, ReadableMap shapeConfiguration) {
         if (shapeConfiguration != null) {
@@ -70,6 +87,20 @@ public class ImageEditorManager extends SimpleViewManager<ImageEditor> {
         }
     }
 
+    @ReactProp(name = PROPS_STROKE_CONFIGURATION)
+    public void setStrokeConfiguration(ImageEditor viewContainer, ReadableMap strokeConfiguration) {
+        if (strokeConfiguration != null) {
+            viewContainer.setStrokeConfiguration(strokeConfiguration);
+        }
+    }
+
+    @ReactProp(name = PROPS_ZOOM_CONFIGURATION)
+    public void setZoomConfiguration(ImageEditor viewContainer, ReadableMap zoomConfiguration) {
+        if (zoomConfiguration != null) {
+            viewContainer.setZoomConfiguration(zoomConfiguration);
+        }
+    }
+
     @ReactProp(name = PROPS_LOCAL_SOURCE_IMAGE)
     public void setLocalSourceImage(ImageEditor viewContainer, ReadableMap localSourceImage) {
         if (localSourceImage != null && localSourceImage.getString("filename") != null) {
@@ -104,6 +135,9 @@ public class ImageEditorManager extends SimpleViewManager<ImageEditor> {
         map.put("changeShapeText", COMMAND_CHANGE_SHAPE_TEXT);
         map.put("unselectShape", COMMAND_UNSELECT_SHAPE);
         map.put("deleteShapeById", COMMAND_DELETE_SHAPE_BY_ID);
+        map.put("addPaths", COMMAND_ADD_PATHS);
+        map.put("addPoints", COMMAND_ADD_POINTS);
+        map.put("resetZoom", COMMAND_RESET_ZOOM);
 
         return map;
     }
@@ -117,7 +151,22 @@ public class ImageEditorManager extends SimpleViewManager<ImageEditor> {
     public void receiveCommand(ImageEditor view, int commandType, @Nullable ReadableArray args) {
         switch (commandType) {
             case COMMAND_ADD_POINT: {
-                view.addPoint((float)args.getDouble(0), (float)args.getDouble(1), (boolean)args.getBoolean(2));
+                long time = args.size() > 3 && !args.isNull(3) ? (long)args.getDouble(3) : StrokeInputFilter.UNKNOWN_TIME;
+                view.addPoint((float)args.getDouble(0), (float)args.getDouble(1), (boolean)args.getBoolean(2), time);
+                return;
+            }
+            case COMMAND_ADD_POINTS: {
+                float[] points = readPackedPoints(args, 0);
+                double[] times = null;
+                if (args.size() > 2 && !args.isNull(2)) {
+                    ReadableArray packedTimes = args.getArray(2);
+                    times = new double[packedTimes.size()];
+                    for (int i=0; i<times.length; i++) {
+                        times[i] = packedTimes.getDouble(i);
+                    }
+                }
+                int pointCount = times != null ? Math.min(points.length / 2, times.length) : points.length / 2;
+                view.addPoints(points, pointCount, args.getBoolean(1), times);
                 return;
             }
             case COMMAND_NEW_PATH: {
@@ -130,12 +179,26 @@ public class ImageEditorManager extends SimpleViewManager<ImageEditor> {
             }
             case COMMAND_ADD_PATH: {
                 ReadableArray path = args.getArray(3);
-                ArrayList<PointF> pointPath = new ArrayList<PointF>(path.size());
-                for (int i=0; i<path.size(); i++) {
-                    String[] coor = path.getString(i).split(",");
-                    pointPath.add(new PointF(Float.parseFloat(coor[0]), Float.parseFloat(coor[1])));
+                int pointCount = path.size();
+                float[] points = new float[pointCount * 2];
+                for (int i=0; i<pointCount; i++) {
+                    String coor = path.getString(i);
+                    int separator = coor.indexOf(',');
+                    points[i * 2] = Float.parseFloat(coor.substring(0, separator));
+                    points[i * 2 + 1] = Float.parseFloat(coor.substring(separator + 1));
+                }
+                view.addPath(args.getInt(0), args.getInt(1), (float)args.getDouble(2), points, pointCount);
+                return;
+            }
+            case COMMAND_ADD_PATHS: {
+                ReadableArray paths = args.getArray(0);
+                ArrayList<SketchData> sketches = new ArrayList<SketchData>(paths.size());
+                for (int i=0; i<paths.size(); i++) {
+                    ReadableArray path = paths.getArray(i);
+                    float[] points = readPackedPoints(path, 3);
+                    sketches.add(new SketchData(path.getInt(0), path.getInt(1), (float)path.getDouble(2), points, points.length / 2));
                 }
-                view.addPath(args.getInt(0), args.getInt(1), (float)args.getDouble(2), pointPath);
+                view.addPaths(sketches);
                 return;
             }
             case COMMAND_DELETE_PATH: {
@@ -143,7 +206,8 @@ public class ImageEditorManager extends SimpleViewManager<ImageEditor> {
                 return;
             }
             case COMMAND_SAVE: {
-                view.save(args.getString(0), args.getString(1), args.getString(2), args.getBoolean(3), args.getBoolean(4), args.getBoolean(5), args.getBoolean(6));
+                ExportOptions options = ExportOptions.from(args.getString(0), args.size() > 7 && !args.isNull(7) ? args.getMap(7) : null);
+                view.save(options, args.getString(1), args.getString(2), args.getBoolean(3), args.getBoolean(4), args.getBoolean(5), args.getBoolean(6));
                 return;
             }
             case COMMAND_END_PATH: {
@@ -220,6 +284,10 @@ public class ImageEditorManager extends SimpleViewManager<ImageEditor> {
                 view.deleteShapeById(entityId);
                 return;
             }
+            case COMMAND_RESET_ZOOM: {
+                view.resetZoom();
+                return;
+            }
             default:
                 throw new IllegalArgumentException(String.format(
                         "Unsupported command %d received by %s.",
@@ -227,4 +295,24 @@ public class ImageEditorManager extends SimpleViewManager<ImageEditor> {
                         getClass().getSimpleName()));
         }
     }
+
+    /**
+     * Reads interleaved x/y coordinates packed either as a flat number array or as a base64
+     * string of little-endian 32-bit floats.
+     */
+    private static float[] readPackedPoints(ReadableArray args, int index) {
+        if (args.getType(index) == ReadableType.String) {
+            byte[] bytes = Base64.decode(args.getString(index), Base64.DEFAULT);
+            float[] points = new float[bytes.length / 8 * 2];
+            ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(points);
+            return points;
+        }
+
+        ReadableArray packed = args.getArray(index);
+        float[] points = new float[packed.size() / 2 * 2];
+        for (int i=0; i<points.length; i++) {
+            points[i] = (float)packed.getDouble(i);
+        }
+        return points;
+    }
 }
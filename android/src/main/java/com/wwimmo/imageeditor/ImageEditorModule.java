@@ -6,6 +6,8 @@ import com.facebook.react.bridge.Callback;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.uimanager.NativeViewHierarchyManager;
 import com.facebook.react.uimanager.UIBlock;
 import com.facebook.react.uimanager.UIManagerModule;
@@ -22,15 +24,55 @@ public class ImageEditorModule extends ReactContextBaseJavaModule {
 
     @ReactMethod
     public void transferToBase64(final int tag, final String type, final boolean transparent, 
-        final boolean includeImage, final boolean includeText, final boolean cropToImageSize, final Callback callback){
+        final boolean includeImage, final boolean includeText, final boolean cropToImageSize, final ReadableMap options, final Callback callback){
         try {
             final ReactApplicationContext context = getReactApplicationContext();
             UIManagerModule uiManager = context.getNativeModule(UIManagerModule.class);
             uiManager.addUIBlock(new UIBlock() {
                 public void execute(NativeViewHierarchyManager nvhm) {
                     ImageEditor view = (ImageEditor) nvhm.resolveView(tag);
-                    String base64 = view.getBase64(type, transparent, includeImage, includeText, cropToImageSize);
-                    callback.invoke(null, base64);
+                    view.getBase64(ExportOptions.from(type, options), transparent, includeImage, includeText, cropToImageSize, callback);
+                }
+            });
+        } catch (Exception e) {
+            callback.invoke(e.getMessage(), null);
+        }
+    }
+
+    @ReactMethod
+    public void getPaths(final int tag, final ReadableMap options, final Callback callback) {
+        try {
+            final ReactApplicationContext context = getReactApplicationContext();
+            UIManagerModule uiManager = context.getNativeModule(UIManagerModule.class);
+            uiManager.addUIBlock(new UIBlock() {
+                public void execute(NativeViewHierarchyManager nvhm) {
+                    ImageEditor view = (ImageEditor) nvhm.resolveView(tag);
+                    int[] ids = null;
+                    if (options != null && options.hasKey("ids") && !options.isNull("ids")) {
+                        ReadableArray idArray = options.getArray("ids");
+                        ids = new int[idArray.size()];
+                        for (int i = 0; i < ids.length; i++) {
+                            ids[i] = idArray.getInt(i);
+                        }
+                    }
+                    int sinceVersion = options != null && options.hasKey("sinceVersion") ? options.getInt("sinceVersion") : 0;
+                    callback.invoke(null, view.exportPaths(ids, sinceVersion));
+                }
+            });
+        } catch (Exception e) {
+            callback.invoke(e.getMessage(), null);
+        }
+    }
+
+    @ReactMethod
+    public void getUndoStats(final int tag, final Callback callback) {
+        try {
+            final ReactApplicationContext context = getReactApplicationContext();
+            UIManagerModule uiManager = context.getNativeModule(UIManagerModule.class);
+            uiManager.addUIBlock(new UIBlock() {
+                public void execute(NativeViewHierarchyManager nvhm) {
+                    ImageEditor view = (ImageEditor) nvhm.resolveView(tag);
+                    callback.invoke(null, view.getUndoStats());
                 }
             });
         } catch (Exception e) {
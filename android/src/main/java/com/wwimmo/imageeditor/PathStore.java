@@ -0,0 +1,221 @@
+package com.wwimmo.imageeditor;
+
+import com.wwimmo.imageeditor.utils.IntObjectMap;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Strokes of an {@link ImageEditor} in drawing order, with O(1) lookup and removal by id.
+ *
+ * Strokes are chained through their own previous/next links, so removing one never shifts
+ * the others, and an id index is kept in step with the chain.
+ *
+ * Every change bumps a version number so that callers can ask for what changed since a
+ * version they already know: strokes carry the version they were last modified in, and
+ * removed ids are logged with the version they were removed in. An id that is added again
+ * leaves the log, and the log only keeps the latest removals; changes from before the oldest
+ * one it still has, or from before the last clear(), are reported by a reset instead.
+ */
+public class PathStore implements Iterable<SketchData> {
+    // Removals logged before the oldest half is dropped
+    private static final int MAX_LOGGED_REMOVALS = 4096;
+
+    private final IntObjectMap<SketchData> mById = new IntObjectMap<SketchData>();
+    private SketchData mFirst = null, mLast = null;
+    private int mSize = 0;
+
+    private int mVersion = 0, mResetVersion = 0;
+    private int[] mRemovedIds = new int[16], mRemovedVersions = new int[16];
+    private int mRemovedCount = 0;
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public SketchData getFirst() {
+        return mFirst;
+    }
+
+    public SketchData getLast() {
+        return mLast;
+    }
+
+    public int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return the version of the last clear() or of the newest removal dropped from the log,
+     *         callers that know an older version have to start over from all strokes
+     */
+    public int getResetVersion() {
+        return mResetVersion;
+    }
+
+    /**
+     * Marks a stroke as modified, e.g. when it was finished or simplified.
+     */
+    public void touch(SketchData path) {
+        path.version = ++mVersion;
+    }
+
+    /**
+     * Collects the ids of strokes removed after {@code sinceVersion} and not added again since,
+     * which is only complete if {@code sinceVersion} is not older than {@link #getResetVersion()}.
+     * A stroke changed after {@code sinceVersion} is never among them, so callers can apply the
+     * removals and then the changed strokes in any order.
+     */
+    public int[] getRemovedIdsSince(int sinceVersion) {
+        int start = mRemovedCount;
+        while (start > 0 && mRemovedVersions[start - 1] > sinceVersion) {
+            start--;
+        }
+        return Arrays.copyOfRange(mRemovedIds, start, mRemovedCount);
+    }
+
+    public SketchData get(int id) {
+        return mById.get(id);
+    }
+
+    public boolean contains(int id) {
+        return mById.containsKey(id);
+    }
+
+    /**
+     * Appends a stroke on top of all others.
+     */
+    public void add(SketchData path) {
+        path.previous = mLast;
+        path.next = null;
+        if (mLast != null) {
+            mLast.next = path;
+        } else {
+            mFirst = path;
+        }
+        mLast = path;
+        mSize++;
+        path.version = ++mVersion;
+        forgetRemoval(path.id);
+
+        // Ids are expected to be unique. An older stroke with the same id stays in the chain but
+        // can no longer be looked up or removed by id.
+        mById.put(path.id, path);
+    }
+
+    /**
+     * @return the removed stroke, or null if no stroke has this id
+     */
+    public SketchData remove(int id) {
+        SketchData path = mById.remove(id);
+        if (path != null) {
+            unlink(path);
+            logRemoval(id);
+        }
+        return path;
+    }
+
+    /**
+     * Removes a stroke that was never handed out, such as one cancelled while it is being
+     * drawn, without logging its id as removed.
+     *
+     * @return the removed stroke, or null if no stroke has this id
+     */
+    public SketchData discard(int id) {
+        SketchData path = mById.remove(id);
+        if (path != null) {
+            unlink(path);
+        }
+        return path;
+    }
+
+    public void clear() {
+        mById.clear();
+        mFirst = null;
+        mLast = null;
+        mSize = 0;
+        mResetVersion = ++mVersion;
+        mRemovedCount = 0;
+    }
+
+    private void logRemoval(int id) {
+        if (mRemovedCount == MAX_LOGGED_REMOVALS) {
+            // Callers older than the dropped removals get a reset instead
+            int dropped = MAX_LOGGED_REMOVALS / 2;
+            mResetVersion = Math.max(mResetVersion, mRemovedVersions[dropped - 1]);
+            mRemovedCount -= dropped;
+            System.arraycopy(mRemovedIds, dropped, mRemovedIds, 0, mRemovedCount);
+            System.arraycopy(mRemovedVersions, dropped, mRemovedVersions, 0, mRemovedCount);
+        }
+        if (mRemovedCount == mRemovedIds.length) {
+            mRemovedIds = Arrays.copyOf(mRemovedIds, mRemovedCount * 2);
+            mRemovedVersions = Arrays.copyOf(mRemovedVersions, mRemovedCount * 2);
+        }
+        mRemovedIds[mRemovedCount] = id;
+        mRemovedVersions[mRemovedCount] = ++mVersion;
+        mRemovedCount++;
+    }
+
+    /**
+     * Drops the logged removal of an id that is added again, the stroke itself now reports the
+     * change. Searched from the end, redo re-adds the latest removals.
+     */
+    private void forgetRemoval(int id) {
+        for (int i = mRemovedCount - 1; i >= 0; i--) {
+            if (mRemovedIds[i] == id) {
+                mRemovedCount--;
+                System.arraycopy(mRemovedIds, i + 1, mRemovedIds, i, mRemovedCount - i);
+                System.arraycopy(mRemovedVersions, i + 1, mRemovedVersions, i, mRemovedCount - i);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public Iterator<SketchData> iterator() {
+        return new Iterator<SketchData>() {
+            private SketchData mNext = mFirst;
+
+            @Override
+            public boolean hasNext() {
+                return mNext != null;
+            }
+
+            @Override
+            public SketchData next() {
+                if (mNext == null) {
+                    throw new NoSuchElementException();
+                }
+                SketchData path = mNext;
+                mNext = path.next;
+                return path;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private void unlink(SketchData path) {
+        if (path.previous != null) {
+            path.previous.next = path.next;
+        } else {
+            mFirst = path.next;
+        }
+        if (path.next != null) {
+            path.next.previous = path.previous;
+        } else {
+            mLast = path.previous;
+        }
+        path.previous = null;
+        path.next = null;
+        mSize--;
+    }
+}
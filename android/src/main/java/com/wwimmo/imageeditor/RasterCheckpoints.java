@@ -0,0 +1,151 @@
+package com.wwimmo.imageeditor;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+
+import com.wwimmo.imageeditor.utils.BitmapPool;
+
+import java.util.ArrayList;
+
+/**
+ * Memory-budgeted ring of drawing layer snapshots taken every {@code interval} committed strokes.
+ *
+ * Deleting one of the most recent strokes can then restore the newest snapshot taken before
+ * that stroke and replay only the strokes committed after it, instead of the whole document.
+ */
+public class RasterCheckpoints {
+    public static class Checkpoint {
+        private final Bitmap mBitmap;
+        // Sequence of the newest stroke contained in the snapshot
+        private int mSequence;
+
+        private Checkpoint(Bitmap bitmap) {
+            mBitmap = bitmap;
+        }
+
+        public int getSequence() {
+            return mSequence;
+        }
+    }
+
+    private final ArrayList<Checkpoint> mCheckpoints = new ArrayList<Checkpoint>();
+    private final Paint mCopyPaint = new Paint();
+    private int mInterval = 10;
+    private long mMaxBytes = 24 * 1024 * 1024;
+    private int mCommittedSinceCheckpoint = 0;
+    private int mHits = 0, mMisses = 0;
+
+    public RasterCheckpoints() {
+        mCopyPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+    }
+
+    /**
+     * @param interval number of committed strokes between snapshots, 0 disables checkpoints
+     */
+    public void setInterval(int interval) {
+        mInterval = interval;
+        if (interval <= 0) {
+            clear();
+        }
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        while (!mCheckpoints.isEmpty() && (long)mCheckpoints.size() * byteCount(mCheckpoints.get(0).mBitmap) > maxBytes) {
+            BitmapPool.getInstance().release(mCheckpoints.remove(0).mBitmap);
+        }
+    }
+
+    /**
+     * Called after a stroke has been rasterized into {@code drawing}.
+     */
+    public void onStrokeCommitted(Bitmap drawing, int sequence) {
+        if (mInterval <= 0 || drawing == null) {
+            return;
+        }
+        mCommittedSinceCheckpoint++;
+        if (mCommittedSinceCheckpoint < mInterval) {
+            return;
+        }
+
+        int capacity = (int)Math.min(Integer.MAX_VALUE, mMaxBytes / byteCount(drawing));
+        if (capacity < 1) {
+            return;
+        }
+
+        Checkpoint checkpoint = null;
+        while (mCheckpoints.size() >= capacity) {
+            Checkpoint oldest = mCheckpoints.remove(0);
+            if (checkpoint == null && oldest.mBitmap.getWidth() == drawing.getWidth()
+                    && oldest.mBitmap.getHeight() == drawing.getHeight()) {
+                checkpoint = oldest;
+            } else {
+                BitmapPool.getInstance().release(oldest.mBitmap);
+            }
+        }
+        if (checkpoint == null) {
+            checkpoint = new Checkpoint(BitmapPool.getInstance().acquire(drawing.getWidth(), drawing.getHeight()));
+        }
+
+        new Canvas(checkpoint.mBitmap).drawBitmap(drawing, 0, 0, mCopyPaint);
+        checkpoint.mSequence = sequence;
+        mCheckpoints.add(checkpoint);
+        mCommittedSinceCheckpoint = 0;
+    }
+
+    /**
+     * Drops every snapshot containing the deleted stroke and returns the newest one left,
+     * or null if there is none.
+     */
+    public Checkpoint onStrokeDeleted(int sequence) {
+        while (!mCheckpoints.isEmpty() && mCheckpoints.get(mCheckpoints.size() - 1).mSequence >= sequence) {
+            BitmapPool.getInstance().release(mCheckpoints.remove(mCheckpoints.size() - 1).mBitmap);
+        }
+        if (mCheckpoints.isEmpty()) {
+            return null;
+        }
+        return mCheckpoints.get(mCheckpoints.size() - 1);
+    }
+
+    /**
+     * Replaces the content of {@code canvas} with the snapshot, and counts a hit.
+     */
+    public void restore(Checkpoint checkpoint, Canvas canvas) {
+        canvas.drawBitmap(checkpoint.mBitmap, 0, 0, mCopyPaint);
+        mHits++;
+    }
+
+    /**
+     * Counts a deleted stroke repainted without a snapshot to restore.
+     */
+    public void onRestoreMissed() {
+        mMisses++;
+    }
+
+    public void clear() {
+        for (Checkpoint checkpoint: mCheckpoints) {
+            BitmapPool.getInstance().release(checkpoint.mBitmap);
+        }
+        mCheckpoints.clear();
+        mCommittedSinceCheckpoint = 0;
+    }
+
+    public int getCount() {
+        return mCheckpoints.size();
+    }
+
+    public int getHits() {
+        return mHits;
+    }
+
+    public int getMisses() {
+        return mMisses;
+    }
+
+    private static long byteCount(Bitmap bitmap) {
+        return (long)bitmap.getRowBytes() * bitmap.getHeight();
+    }
+}
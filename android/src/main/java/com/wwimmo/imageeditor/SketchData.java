@@ -4,109 +4,207 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Path;
-import android.graphics.PointF;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
 import android.graphics.Rect;
 import android.graphics.RectF;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
 public class SketchData {
-    public final ArrayList<PointF> points = new ArrayList<PointF>();
+    private static final int INITIAL_POINT_CAPACITY = 32;
+
     public final int id, strokeColor;
     public final float strokeWidth;
     public final boolean isTranslucent;
 
-    private Paint mPaint;
-    private Path mPath;
-    private RectF mDirty = null;
+    // Points are stored interleaved (x0, y0, x1, y1, ...) to avoid one PointF per touch sample
+    private float[] mPoints;
+    private int mPointCount = 0;
+    // Tight bounds of the raw points, the quadratic segments never leave them
+    private final RectF mPointBounds = new RectF();
 
-    public static PointF midPoint(PointF p1, PointF p2) {
-        return new PointF((p1.x + p2.x) * 0.5f, (p1.y + p2.y) * 0.5f);
-    }
+    // Position in the drawing order, last query that visited this stroke, index generation it was
+    // inserted in and grid cells it is registered in, maintained by StrokeIndex
+    int sequence;
+    int queryStamp;
+    int indexGeneration;
+    int cellLeft, cellTop, cellRight = -1, cellBottom = -1;
+
+    // Neighbours in drawing order and version of the last change, maintained by PathStore
+    SketchData previous, next;
+    int version;
+
+    // Created up front, finished strokes are drawn by export threads as well as the UI thread
+    private final Paint mPaint;
+    // Whole stroke as one continuous path, extended on every addPoint and drawn in one call on full redraws
+    private final Path mPath;
+    private final RectF mDirty = new RectF();
+
+    // Scratch objects reused by the ingest path so that adding a point does not allocate
+    private final RectF mUpdateRect = new RectF();
+    private final Path mSegmentPath = new Path();
 
     public SketchData(int id, int strokeColor, float strokeWidth) {
         this.id = id;
         this.strokeColor = strokeColor;
         this.strokeWidth = strokeWidth;
         this.isTranslucent = ((strokeColor >> 24) & 0xff) != 255 && strokeColor != Color.TRANSPARENT;
-        mPath = this.isTranslucent ? new Path() : null;
+        mPoints = new float[INITIAL_POINT_CAPACITY * 2];
+        mPath = new Path();
+        mPaint = createPaint();
     }
 
-    public SketchData(int id, int strokeColor, float strokeWidth, ArrayList<PointF> points) {
+    /**
+     * @param points interleaved x/y coordinates, only the first {@code pointCount} pairs are used
+     */
+    public SketchData(int id, int strokeColor, float strokeWidth, float[] points, int pointCount) {
         this.id = id;
         this.strokeColor = strokeColor;
         this.strokeWidth = strokeWidth;
-        this.points.addAll(points);
+        mPoints = Arrays.copyOf(points, Math.max(pointCount, 1) * 2);
+        mPointCount = pointCount;
         this.isTranslucent = ((strokeColor >> 24) & 0xff) != 255 && strokeColor != Color.TRANSPARENT;
-        mPath = this.isTranslucent ? evaluatePath() : null;
+        mPath = evaluatePath();
+        mPaint = createPaint();
+        evaluateBounds();
+    }
+
+    public int getPointCount() {
+        return mPointCount;
     }
 
-    public Rect addPoint(PointF p) {
-        points.add(p);
+    public float getPointX(int index) {
+        return mPoints[index * 2];
+    }
 
-        RectF updateRect;
+    public float getPointY(int index) {
+        return mPoints[index * 2 + 1];
+    }
 
-        int pointsCount = points.size();
+    /**
+     * Writes the stroke bounds, inflated by the stroke width, into {@code out}.
+     * @return false if the stroke has no points yet
+     */
+    public boolean getBounds(RectF out) {
+        if (mPointCount == 0) {
+            out.setEmpty();
+            return false;
+        }
+        out.set(mPointBounds);
+        out.inset(-strokeWidth, -strokeWidth);
+        return true;
+    }
 
-        if (this.isTranslucent) {
-            if (pointsCount >= 3) {
-                addPointToPath(mPath, 
-                    this.points.get(pointsCount - 3), 
-                    this.points.get(pointsCount - 2),
-                    p);
-            } else if (pointsCount >= 2) {
-                addPointToPath(mPath, this.points.get(0), this.points.get(0), p);
-            } else {
-                addPointToPath(mPath, p, p, p);
+    /**
+     * @return true if the stroke passes within {@code radius} pixels of (x, y)
+     */
+    public boolean isNear(float x, float y, float radius) {
+        float reach = radius + strokeWidth * 0.5f;
+        float reachSquared = reach * reach;
+        if (mPointCount == 1) {
+            float dx = x - getPointX(0), dy = y - getPointY(0);
+            return dx * dx + dy * dy <= reachSquared;
+        }
+        for (int i = 1; i < mPointCount; i++) {
+            float ax = getPointX(i - 1), ay = getPointY(i - 1);
+            float sx = getPointX(i) - ax, sy = getPointY(i) - ay;
+            float px = x - ax, py = y - ay;
+            float lengthSquared = sx * sx + sy * sy;
+            float t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, (px * sx + py * sy) / lengthSquared));
+            float dx = px - sx * t, dy = py - sy * t;
+            if (dx * dx + dy * dy <= reachSquared) {
+                return true;
             }
+        }
+        return false;
+    }
+
+    private void evaluateBounds() {
+        mPointBounds.setEmpty();
+        for (int i = 0; i < mPointCount; i++) {
+            unionBounds(getPointX(i), getPointY(i), i == 0);
+        }
+    }
+
+    private void unionBounds(float x, float y, boolean isFirst) {
+        if (isFirst) {
+            mPointBounds.set(x, y, x, y);
+        } else {
+            mPointBounds.left = Math.min(mPointBounds.left, x);
+            mPointBounds.top = Math.min(mPointBounds.top, y);
+            mPointBounds.right = Math.max(mPointBounds.right, x);
+            mPointBounds.bottom = Math.max(mPointBounds.bottom, y);
+        }
+    }
+
+    private void appendPoint(float x, float y) {
+        if (mPointCount * 2 == mPoints.length) {
+            mPoints = Arrays.copyOf(mPoints, mPoints.length * 2);
+        }
+        mPoints[mPointCount * 2] = x;
+        mPoints[mPointCount * 2 + 1] = y;
+        unionBounds(x, y, mPointCount == 0);
+        mPointCount++;
+    }
+
+    /**
+     * Appends a point and writes the area that needs to be redrawn into {@code dirty}.
+     * Allocation-free once the point buffer has grown to fit the stroke.
+     */
+    public void addPoint(float x, float y, Rect dirty) {
+        appendPoint(x, y);
+
+        RectF updateRect = mUpdateRect;
+
+        int pointsCount = mPointCount;
+
+        extendPath(mPath, pointsCount - 1);
 
-            float x = p.x, y = p.y;
-            if (mDirty == null) {
-                mDirty = new RectF(x, y, x + 1, y + 1);
-                updateRect = new RectF(x - this.strokeWidth, y - this.strokeWidth, 
+        if (this.isTranslucent) {
+            if (mDirty.isEmpty()) {
+                mDirty.set(x, y, x + 1, y + 1);
+                updateRect.set(x - this.strokeWidth, y - this.strokeWidth,
                     x + this.strokeWidth, y + this.strokeWidth);
             } else {
                 mDirty.union(x, y);
-                updateRect = new RectF(
-                                    mDirty.left - this.strokeWidth, mDirty.top - this.strokeWidth,
-                                    mDirty.right + this.strokeWidth, mDirty.bottom + this.strokeWidth
-                                    );
+                updateRect.set(
+                                mDirty.left - this.strokeWidth, mDirty.top - this.strokeWidth,
+                                mDirty.right + this.strokeWidth, mDirty.bottom + this.strokeWidth
+                                );
             }
         } else {
             if (pointsCount >= 3) {
-                PointF a = points.get(pointsCount - 3);
-                PointF b = points.get(pointsCount - 2);
-                PointF c = p;
-                PointF prevMid = midPoint(a, b);
-                PointF currentMid = midPoint(b, c);
-
-                updateRect = new RectF(prevMid.x, prevMid.y, prevMid.x, prevMid.y);
-                updateRect.union(b.x, b.y);
-                updateRect.union(currentMid.x, currentMid.y);
+                float ax = getPointX(pointsCount - 3), ay = getPointY(pointsCount - 3);
+                float bx = getPointX(pointsCount - 2), by = getPointY(pointsCount - 2);
+                float prevMidX = (ax + bx) * 0.5f, prevMidY = (ay + by) * 0.5f;
+
+                updateRect.set(prevMidX, prevMidY, prevMidX, prevMidY);
+                updateRect.union(bx, by);
+                updateRect.union((bx + x) * 0.5f, (by + y) * 0.5f);
             } else if (pointsCount >= 2) {
-                PointF a = points.get(pointsCount - 2);
-                PointF b = p;
-                PointF mid = midPoint(a, b);
+                float ax = getPointX(pointsCount - 2), ay = getPointY(pointsCount - 2);
 
-                updateRect = new RectF(a.x, a.y, a.x, a.y);
-                updateRect.union(mid.x, mid.y);
+                updateRect.set(ax, ay, ax, ay);
+                updateRect.union((ax + x) * 0.5f, (ay + y) * 0.5f);
             } else {
-                updateRect = new RectF(p.x, p.y, p.x, p.y);
+                updateRect.set(x, y, x, y);
             }
 
             updateRect.inset(-strokeWidth * 2, -strokeWidth * 2);
 
         }
+        updateRect.roundOut(dirty);
+    }
+
+    public Rect addPoint(float x, float y) {
         Rect integralRect = new Rect();
-        updateRect.roundOut(integralRect);
-        
+        addPoint(x, y, integralRect);
         return integralRect;
     }
 
     public void drawLastPoint(Canvas canvas) {
-        int pointsCount = points.size();
+        int pointsCount = mPointCount;
         if (pointsCount < 1) {
             return;
         }
@@ -115,106 +213,167 @@ public class SketchData {
     }
 
     public void draw(Canvas canvas) {
-        if (this.isTranslucent) {
-            canvas.drawPath(mPath, getPaint());
-        } else {
-            int pointsCount = points.size();
-            for (int i = 0; i < pointsCount; i++) {
-                draw(canvas, i);
+        canvas.drawPath(mPath, mPaint);
+    }
+
+    /**
+     * @return an independent copy, for strokes that are still being drawn
+     */
+    public SketchData copy() {
+        return new SketchData(id, strokeColor, strokeWidth, mPoints, mPointCount);
+    }
+
+    /**
+     * Drops points that lie within {@code tolerance} pixels of the simplified polyline
+     * (Ramer-Douglas-Peucker) and rebuilds the cached path from the remaining ones.
+     *
+     * @return the number of points kept
+     */
+    public int simplify(float tolerance) {
+        int pointsCount = mPointCount;
+        if (pointsCount < 3 || tolerance <= 0) {
+            return pointsCount;
+        }
+
+        boolean[] keep = new boolean[pointsCount];
+        keep[0] = true;
+        keep[pointsCount - 1] = true;
+
+        // Iterative to keep long strokes from overflowing the stack
+        int[] stack = new int[pointsCount * 2];
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+        stack[stackSize++] = pointsCount - 1;
+        float toleranceSquared = tolerance * tolerance;
+
+        while (stackSize > 0) {
+            int last = stack[--stackSize];
+            int first = stack[--stackSize];
+
+            float ax = getPointX(first), ay = getPointY(first);
+            float dx = getPointX(last) - ax, dy = getPointY(last) - ay;
+            float lengthSquared = dx * dx + dy * dy;
+
+            float maxDistanceSquared = 0;
+            int farthest = -1;
+            for (int i = first + 1; i < last; i++) {
+                float px = getPointX(i) - ax, py = getPointY(i) - ay;
+                float distanceSquared;
+                if (lengthSquared == 0) {
+                    distanceSquared = px * px + py * py;
+                } else {
+                    float cross = px * dy - py * dx;
+                    distanceSquared = cross * cross / lengthSquared;
+                }
+                if (distanceSquared > maxDistanceSquared) {
+                    maxDistanceSquared = distanceSquared;
+                    farthest = i;
+                }
+            }
+
+            if (farthest != -1 && maxDistanceSquared > toleranceSquared) {
+                keep[farthest] = true;
+                stack[stackSize++] = first;
+                stack[stackSize++] = farthest;
+                stack[stackSize++] = farthest;
+                stack[stackSize++] = last;
             }
         }
-    }
 
-    private Paint getPaint() {
-        if (mPaint == null) {
-            boolean isErase = strokeColor == Color.TRANSPARENT;
+        int kept = 0;
+        for (int i = 0; i < pointsCount; i++) {
+            if (keep[i]) {
+                mPoints[kept * 2] = mPoints[i * 2];
+                mPoints[kept * 2 + 1] = mPoints[i * 2 + 1];
+                kept++;
+            }
+        }
+        mPointCount = kept;
+        evaluateBounds();
 
-            mPaint = new Paint();
-            mPaint.setColor(strokeColor);
-            mPaint.setStrokeWidth(strokeWidth);
-            mPaint.setStyle(Paint.Style.STROKE);
-            mPaint.setStrokeCap(Paint.Cap.ROUND);
-            mPaint.setStrokeJoin(Paint.Join.ROUND);
-            mPaint.setAntiAlias(true);
-            mPaint.setXfermode(new PorterDuffXfermode(isErase ? PorterDuff.Mode.CLEAR : PorterDuff.Mode.SRC_OVER));
+        mPath.reset();
+        for (int pointIndex = 0; pointIndex < kept; pointIndex++) {
+            extendPath(mPath, pointIndex);
         }
-        return mPaint;
+        return kept;
+    }
+
+    private Paint createPaint() {
+        boolean isErase = strokeColor == Color.TRANSPARENT;
+
+        Paint paint = new Paint();
+        paint.setColor(strokeColor);
+        paint.setStrokeWidth(strokeWidth);
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeCap(Paint.Cap.ROUND);
+        paint.setStrokeJoin(Paint.Join.ROUND);
+        paint.setAntiAlias(true);
+        paint.setXfermode(new PorterDuffXfermode(isErase ? PorterDuff.Mode.CLEAR : PorterDuff.Mode.SRC_OVER));
+        return paint;
     }
 
     private void draw(Canvas canvas, int pointIndex) {
-        int pointsCount = points.size();
+        int pointsCount = mPointCount;
         if (pointIndex >= pointsCount) {
             return;
         }
 
         if (pointsCount >= 3 && pointIndex >= 2) {
-            PointF a = points.get(pointIndex - 2);
-            PointF b = points.get(pointIndex - 1);
-            PointF c = points.get(pointIndex);
-            PointF prevMid = midPoint(a, b);
-            PointF currentMid = midPoint(b, c);
+            float ax = getPointX(pointIndex - 2), ay = getPointY(pointIndex - 2);
+            float bx = getPointX(pointIndex - 1), by = getPointY(pointIndex - 1);
+            float cx = getPointX(pointIndex), cy = getPointY(pointIndex);
 
             // Draw a curve
-            Path path = new Path();
-            path.moveTo(prevMid.x, prevMid.y);
-            path.quadTo(b.x, b.y, currentMid.x, currentMid.y);
+            Path path = mSegmentPath;
+            path.reset();
+            path.moveTo((ax + bx) * 0.5f, (ay + by) * 0.5f);
+            path.quadTo(bx, by, (bx + cx) * 0.5f, (by + cy) * 0.5f);
 
-            canvas.drawPath(path, getPaint());
+            canvas.drawPath(path, mPaint);
         } else if (pointsCount >= 2 && pointIndex >= 1) {
-            PointF a = points.get(pointIndex - 1);
-            PointF b = points.get(pointIndex);
-            PointF mid = midPoint(a, b);
+            float ax = getPointX(pointIndex - 1), ay = getPointY(pointIndex - 1);
+            float bx = getPointX(pointIndex), by = getPointY(pointIndex);
 
             // Draw a line to the middle of points a and b
             // This is so the next draw which uses a curve looks correct and continues from there
-            canvas.drawLine(a.x, a.y, mid.x, mid.y, getPaint());
+            canvas.drawLine(ax, ay, (ax + bx) * 0.5f, (ay + by) * 0.5f, mPaint);
         } else if (pointsCount >= 1) {
-            PointF a = points.get(pointIndex);
-
             // Draw a single point
-            canvas.drawPoint(a.x, a.y, getPaint());
+            canvas.drawPoint(getPointX(pointIndex), getPointY(pointIndex), mPaint);
         }
     }
 
     private Path evaluatePath() {
-        int pointsCount = points.size();
         Path path = new Path();
-
-        for(int pointIndex=0; pointIndex<pointsCount; pointIndex++) {
-            if (pointsCount >= 3 && pointIndex >= 2) {
-                PointF a = points.get(pointIndex - 2);
-                PointF b = points.get(pointIndex - 1);
-                PointF c = points.get(pointIndex);
-                PointF prevMid = midPoint(a, b);
-                PointF currentMid = midPoint(b, c);
-                
-                // Draw a curve
-                path.moveTo(prevMid.x, prevMid.y);
-                path.quadTo(b.x, b.y, currentMid.x, currentMid.y);
-            } else if (pointsCount >= 2 && pointIndex >= 1) {
-                PointF a = points.get(pointIndex - 1);
-                PointF b = points.get(pointIndex);
-                PointF mid = midPoint(a, b);
-                
-                // Draw a line to the middle of points a and b
-                // This is so the next draw which uses a curve looks correct and continues from there
-                path.moveTo(a.x, a.y);
-                path.lineTo(mid.x, mid.y);
-            } else if (pointsCount >= 1) {
-                PointF a = points.get(pointIndex);
-                
-                // Draw a single point
-                path.moveTo(a.x, a.y);
-                path.lineTo(a.x, a.y);
-            }
+        for (int pointIndex = 0; pointIndex < mPointCount; pointIndex++) {
+            extendPath(path, pointIndex);
         }
         return path;
     }
 
-    private void addPointToPath(Path path, PointF tPoint, PointF pPoint, PointF point) {
-        PointF mid1 = new PointF((pPoint.x + tPoint.x) * 0.5f, (pPoint.y + tPoint.y) * 0.5f);
-        PointF mid2 = new PointF((point.x + pPoint.x) * 0.5f, (point.y + pPoint.y) * 0.5f);
-        path.moveTo(mid1.x, mid1.y);
-        path.quadTo(pPoint.x, pPoint.y, mid2.x, mid2.y);
+    /**
+     * Appends the segment ending at {@code pointIndex} to {@code path}. Each segment ends where
+     * the next one starts, so the stroke stays a single contour.
+     */
+    private void extendPath(Path path, int pointIndex) {
+        if (pointIndex >= 2) {
+            float bx = getPointX(pointIndex - 1), by = getPointY(pointIndex - 1);
+            float cx = getPointX(pointIndex), cy = getPointY(pointIndex);
+
+            // Curve from the previous midpoint to the current one
+            path.quadTo(bx, by, (bx + cx) * 0.5f, (by + cy) * 0.5f);
+        } else if (pointIndex == 1) {
+            float ax = getPointX(0), ay = getPointY(0);
+            float bx = getPointX(1), by = getPointY(1);
+
+            // Line to the middle of points a and b, so the next curve continues from there
+            path.lineTo((ax + bx) * 0.5f, (ay + by) * 0.5f);
+        } else {
+            float ax = getPointX(0), ay = getPointY(0);
+
+            // Single point
+            path.moveTo(ax, ay);
+            path.lineTo(ax, ay);
+        }
     }
 }
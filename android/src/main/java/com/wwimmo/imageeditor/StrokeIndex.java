@@ -0,0 +1,178 @@
+package com.wwimmo.imageeditor;
+
+import android.graphics.RectF;
+
+import com.wwimmo.imageeditor.utils.IntObjectMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Uniform grid over the bounds of committed strokes.
+ *
+ * Every stroke is registered in each cell its bounds overlap, so region queries only look at
+ * the strokes stored in the cells covering the region instead of scanning every stroke.
+ * Query results are returned in drawing order, so the order of the strokes within a cell does
+ * not matter. The cell range of each stroke is kept on the stroke itself.
+ */
+public class StrokeIndex {
+    private static final float CELL_SIZE = 256;
+
+    private static final Comparator<SketchData> DRAWING_ORDER = new Comparator<SketchData>() {
+        @Override
+        public int compare(SketchData a, SketchData b) {
+            return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+        }
+    };
+
+    private final IntObjectMap<ArrayList<SketchData>> mCells = new IntObjectMap<ArrayList<SketchData>>();
+    private final RectF mBounds = new RectF();
+    private int mSize = 0;
+    // Strokes inserted before the last clear() carry an older generation and count as removed
+    private int mGeneration = 1;
+    private int mNextSequence = 0;
+    private int mQueryStamp = 0;
+
+    /**
+     * Adds a stroke on top of all strokes indexed so far.
+     */
+    public void insert(SketchData stroke) {
+        if (stroke.indexGeneration == mGeneration) {
+            unregister(stroke);
+        } else {
+            stroke.indexGeneration = mGeneration;
+            mSize++;
+        }
+        stroke.sequence = mNextSequence++;
+        register(stroke);
+    }
+
+    /**
+     * Re-registers a stroke whose points changed, keeping its position in the drawing order.
+     */
+    public void update(SketchData stroke) {
+        if (stroke.indexGeneration != mGeneration) {
+            return;
+        }
+        unregister(stroke);
+        register(stroke);
+    }
+
+    public void remove(SketchData stroke) {
+        if (stroke.indexGeneration != mGeneration) {
+            return;
+        }
+        unregister(stroke);
+        stroke.indexGeneration = 0;
+        mSize--;
+    }
+
+    /**
+     * Removes every stroke, which have to be inserted again before they are found by queries.
+     */
+    public void clear() {
+        mCells.clear();
+        mSize = 0;
+        mGeneration++;
+    }
+
+    /**
+     * Collects the strokes whose bounds intersect {@code rect}, in drawing order.
+     */
+    public void query(RectF rect, ArrayList<SketchData> out) {
+        out.clear();
+        if (rect.isEmpty() || mSize == 0) {
+            return;
+        }
+
+        int stamp = ++mQueryStamp;
+        int left = cell(rect.left), top = cell(rect.top), right = cell(rect.right), bottom = cell(rect.bottom);
+        for (int cx = left; cx <= right; cx++) {
+            for (int cy = top; cy <= bottom; cy++) {
+                ArrayList<SketchData> cell = mCells.get(key(cx, cy));
+                if (cell == null) {
+                    continue;
+                }
+                for (int i = 0; i < cell.size(); i++) {
+                    SketchData stroke = cell.get(i);
+                    if (stroke.queryStamp != stamp) {
+                        stroke.queryStamp = stamp;
+                        if (stroke.getBounds(mBounds) && RectF.intersects(mBounds, rect)) {
+                            out.add(stroke);
+                        }
+                    }
+                }
+            }
+        }
+        Collections.sort(out, DRAWING_ORDER);
+    }
+
+    /**
+     * Collects the strokes passing within {@code radius} pixels of (x, y), in drawing order.
+     */
+    public void queryNear(float x, float y, float radius, ArrayList<SketchData> out) {
+        query(new RectF(x - radius, y - radius, x + radius, y + radius), out);
+        for (int i = out.size() - 1; i >= 0; i--) {
+            if (!out.get(i).isNear(x, y, radius)) {
+                out.remove(i);
+            }
+        }
+    }
+
+    private void register(SketchData stroke) {
+        if (!stroke.getBounds(mBounds)) {
+            // Inverted range, so unregister() visits no cells
+            stroke.cellLeft = stroke.cellTop = 0;
+            stroke.cellRight = stroke.cellBottom = -1;
+            return;
+        }
+        stroke.cellLeft = cell(mBounds.left);
+        stroke.cellTop = cell(mBounds.top);
+        stroke.cellRight = cell(mBounds.right);
+        stroke.cellBottom = cell(mBounds.bottom);
+        for (int cx = stroke.cellLeft; cx <= stroke.cellRight; cx++) {
+            for (int cy = stroke.cellTop; cy <= stroke.cellBottom; cy++) {
+                int key = key(cx, cy);
+                ArrayList<SketchData> cell = mCells.get(key);
+                if (cell == null) {
+                    cell = new ArrayList<SketchData>();
+                    mCells.put(key, cell);
+                }
+                cell.add(stroke);
+            }
+        }
+    }
+
+    private void unregister(SketchData stroke) {
+        for (int cx = stroke.cellLeft; cx <= stroke.cellRight; cx++) {
+            for (int cy = stroke.cellTop; cy <= stroke.cellBottom; cy++) {
+                int key = key(cx, cy);
+                ArrayList<SketchData> cell = mCells.get(key);
+                if (cell == null) {
+                    continue;
+                }
+                // Searched from the end, undo and live updates touch the latest strokes, and the
+                // last element is moved into the gap instead of shifting everything after it
+                int index = cell.lastIndexOf(stroke);
+                if (index < 0) {
+                    continue;
+                }
+                int last = cell.size() - 1;
+                cell.set(index, cell.get(last));
+                cell.remove(last);
+                if (cell.isEmpty()) {
+                    mCells.remove(key);
+                }
+            }
+        }
+    }
+
+    private static int cell(float coordinate) {
+        return (int)Math.floor(coordinate / CELL_SIZE);
+    }
+
+    private static int key(int cx, int cy) {
+        return (cx << 16) | (cy & 0xffff);
+    }
+}
@@ -0,0 +1,116 @@
+package com.wwimmo.imageeditor;
+
+/**
+ * Decimates raw touch samples before they reach {@link SketchData#addPoint}.
+ *
+ * A sample is dropped when it is closer than {@code minDistance} pixels or arrives sooner than
+ * {@code minInterval} milliseconds after the last accepted one, unless it turns the stroke by more
+ * than {@code cornerAngle} degrees. Samples are timed by when they were touched, samples without
+ * a time are never dropped for arriving too soon. Corners are only looked for once a sample has
+ * moved far enough for its direction to mean something, so jitter of a finger at rest does not
+ * pass as a corner. The first sample of a stroke is always accepted and the last dropped one is
+ * kept as pending so it can be flushed when the stroke ends.
+ */
+public class StrokeInputFilter {
+    /**
+     * Time of samples whose touch time is not known.
+     */
+    public static final long UNKNOWN_TIME = -1;
+    // Closest a sample may be to the last accepted one to count as a corner, in pixels
+    private static final float MIN_CORNER_DISTANCE = 2;
+
+    private float mMinDistance = 0;
+    private long mMinInterval = 0;
+    private float mCornerCos = (float)Math.cos(Math.toRadians(30));
+
+    private boolean mHasLast = false, mHasDirection = false, mHasPending = false;
+    private float mLastX, mLastY, mDirectionX, mDirectionY, mPendingX, mPendingY;
+    private long mLastTime;
+
+    public void setMinDistance(float minDistance) {
+        mMinDistance = minDistance;
+    }
+
+    public void setMinInterval(long minInterval) {
+        mMinInterval = minInterval;
+    }
+
+    public void setCornerAngle(float cornerAngle) {
+        mCornerCos = (float)Math.cos(Math.toRadians(cornerAngle));
+    }
+
+    public boolean isEnabled() {
+        return mMinDistance > 0 || mMinInterval > 0;
+    }
+
+    public void reset() {
+        mHasLast = false;
+        mHasDirection = false;
+        mHasPending = false;
+    }
+
+    /**
+     * @param time uptime in milliseconds when the sample was touched, or {@link #UNKNOWN_TIME}
+     * @return true if the sample should be added to the stroke
+     */
+    public boolean accept(float x, float y, long time) {
+        if (!mHasLast) {
+            onAccepted(x, y, time);
+            return true;
+        }
+
+        float dx = x - mLastX, dy = y - mLastY;
+        float distance = (float)Math.sqrt(dx * dx + dy * dy);
+        boolean tooClose = mMinDistance > 0 && distance < mMinDistance;
+        boolean tooSoon = mMinInterval > 0 && time != UNKNOWN_TIME && mLastTime != UNKNOWN_TIME
+                && time - mLastTime < mMinInterval;
+
+        if (!tooClose && !tooSoon) {
+            onAccepted(x, y, time);
+            return true;
+        }
+
+        // Keep sharp direction changes even if they are close to the previous sample
+        if (mHasDirection && distance >= Math.max(MIN_CORNER_DISTANCE, mMinDistance * 0.5f)) {
+            float cos = (dx * mDirectionX + dy * mDirectionY) / distance;
+            if (cos < mCornerCos) {
+                onAccepted(x, y, time);
+                return true;
+            }
+        }
+
+        mHasPending = true;
+        mPendingX = x;
+        mPendingY = y;
+        return false;
+    }
+
+    public boolean hasPendingPoint() {
+        return mHasPending;
+    }
+
+    public float getPendingX() {
+        return mPendingX;
+    }
+
+    public float getPendingY() {
+        return mPendingY;
+    }
+
+    private void onAccepted(float x, float y, long time) {
+        if (mHasLast) {
+            float dx = x - mLastX, dy = y - mLastY;
+            float distance = (float)Math.sqrt(dx * dx + dy * dy);
+            if (distance > 0) {
+                mDirectionX = dx / distance;
+                mDirectionY = dy / distance;
+                mHasDirection = true;
+            }
+        }
+        mHasLast = true;
+        mHasPending = false;
+        mLastX = x;
+        mLastY = y;
+        mLastTime = time;
+    }
+}
@@ -0,0 +1,107 @@
+package com.wwimmo.imageeditor;
+
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+/**
+ * Zoom and pan applied to the editor content when it is drawn.
+ *
+ * Strokes, text and entities keep the coordinates they have at zoom 1, the document
+ * coordinates; the viewport only maps them to the screen. The zoom never goes below 1 and the
+ * document always covers the whole view.
+ */
+public class Viewport {
+    private final Matrix mMatrix = new Matrix(), mInverse = new Matrix();
+    private final RectF mMapped = new RectF();
+    private float mScale = 1, mTranslateX = 0, mTranslateY = 0;
+    private float mMaxScale = 8;
+    private int mWidth, mHeight;
+
+    public void setSize(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        update();
+    }
+
+    public void setMaxScale(float maxScale) {
+        mMaxScale = Math.max(1, maxScale);
+        if (mScale > mMaxScale) {
+            zoomBy(mMaxScale / mScale, mWidth * 0.5f, mHeight * 0.5f);
+        }
+    }
+
+    public float getScale() {
+        return mScale;
+    }
+
+    public boolean isIdentity() {
+        return mScale == 1;
+    }
+
+    /**
+     * Zooms by {@code factor} around the screen point (focusX, focusY), which stays in place
+     * unless the zoom or the document edges are reached.
+     */
+    public void zoomBy(float factor, float focusX, float focusY) {
+        float scale = Math.max(1, Math.min(mMaxScale, mScale * factor));
+        float applied = scale / mScale;
+        mTranslateX = focusX - (focusX - mTranslateX) * applied;
+        mTranslateY = focusY - (focusY - mTranslateY) * applied;
+        mScale = scale;
+        update();
+    }
+
+    public void panBy(float dx, float dy) {
+        mTranslateX += dx;
+        mTranslateY += dy;
+        update();
+    }
+
+    public void reset() {
+        mScale = 1;
+        mTranslateX = 0;
+        mTranslateY = 0;
+        update();
+    }
+
+    /**
+     * @return the transform from document to screen coordinates, must not be modified
+     */
+    public Matrix getMatrix() {
+        return mMatrix;
+    }
+
+    /**
+     * @return the transform from screen to document coordinates, must not be modified
+     */
+    public Matrix getInverseMatrix() {
+        return mInverse;
+    }
+
+    /**
+     * Writes the part of the document visible on screen into {@code out}.
+     */
+    public void getVisibleRect(RectF out) {
+        out.set(-mTranslateX / mScale, -mTranslateY / mScale,
+                (mWidth - mTranslateX) / mScale, (mHeight - mTranslateY) / mScale);
+    }
+
+    /**
+     * Writes the screen area covering {@code documentRect} into {@code out}.
+     */
+    public void mapToScreen(Rect documentRect, Rect out) {
+        mMapped.set(documentRect);
+        mMatrix.mapRect(mMapped);
+        mMapped.roundOut(out);
+    }
+
+    private void update() {
+        // Keeps the document edges at or beyond the view edges
+        mTranslateX = Math.max(mWidth - mWidth * mScale, Math.min(0, mTranslateX));
+        mTranslateY = Math.max(mHeight - mHeight * mScale, Math.min(0, mTranslateY));
+        mMatrix.setScale(mScale, mScale);
+        mMatrix.postTranslate(mTranslateX, mTranslateY);
+        mMatrix.invert(mInverse);
+    }
+}
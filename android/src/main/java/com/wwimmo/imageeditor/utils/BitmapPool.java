@@ -0,0 +1,134 @@
+package com.wwimmo.imageeditor.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Build;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Process-wide pool of mutable ARGB_8888 bitmaps, bucketed by allocation size.
+ *
+ * Editor layers and entity buffers are taken from the pool and given back when they are no
+ * longer needed, so opening editors, rotating and adding shapes reuse pixel memory instead of
+ * allocating it again. Since Android 4.4 a pooled bitmap of any size can be reconfigured to a
+ * smaller one, before that only bitmaps of the exact size are reused. The pool keeps at most
+ * {@code maxBytes} of bitmaps and drops the largest ones first.
+ */
+public final class BitmapPool {
+    // A pooled bitmap is only reused for a request at least this fraction of its size
+    private static final int MAX_SIZE_RATIO = 2;
+
+    private static final BitmapPool sInstance =
+            new BitmapPool(Math.min(64 * 1024 * 1024, Runtime.getRuntime().maxMemory() / 8));
+
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> mBuckets = new TreeMap<Integer, ArrayDeque<Bitmap>>();
+    private long mMaxBytes;
+    private long mBytes = 0;
+
+    public static BitmapPool getInstance() {
+        return sInstance;
+    }
+
+    public BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trimTo(maxBytes);
+    }
+
+    /**
+     * @return a transparent, mutable ARGB_8888 bitmap of the given size
+     */
+    public Bitmap acquire(int width, int height) {
+        Bitmap bitmap = takeReusable(width, height);
+        if (bitmap == null) {
+            return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+        bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+
+    /**
+     * Gives a bitmap back to the pool. It must not be used by the caller anymore.
+     */
+    public synchronized void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+                || bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            return;
+        }
+        int size = byteCount(bitmap);
+        if (size > mMaxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        ArrayDeque<Bitmap> bucket = mBuckets.get(size);
+        if (bucket == null) {
+            bucket = new ArrayDeque<Bitmap>();
+            mBuckets.put(size, bucket);
+        }
+        bucket.push(bitmap);
+        mBytes += size;
+        trimTo(mMaxBytes);
+    }
+
+    public synchronized void clear() {
+        trimTo(0);
+    }
+
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    private synchronized Bitmap takeReusable(int width, int height) {
+        int needed = width * height * 4;
+        if (Build.VERSION.SDK_INT < 19) {
+            ArrayDeque<Bitmap> bucket = mBuckets.get(needed);
+            if (bucket != null) {
+                for (Bitmap bitmap: bucket) {
+                    if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                        bucket.remove(bitmap);
+                        onTaken(needed, bucket);
+                        return bitmap;
+                    }
+                }
+            }
+            return null;
+        }
+
+        Map.Entry<Integer, ArrayDeque<Bitmap>> entry = mBuckets.ceilingEntry(needed);
+        if (entry == null || entry.getKey() > (long)needed * MAX_SIZE_RATIO) {
+            return null;
+        }
+        Bitmap bitmap = entry.getValue().pop();
+        onTaken(entry.getKey(), entry.getValue());
+        if (bitmap.getWidth() != width || bitmap.getHeight() != height) {
+            bitmap.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+        }
+        return bitmap;
+    }
+
+    private void onTaken(int size, ArrayDeque<Bitmap> bucket) {
+        mBytes -= size;
+        if (bucket.isEmpty()) {
+            mBuckets.remove(size);
+        }
+    }
+
+    private void trimTo(long maxBytes) {
+        while (mBytes > maxBytes && !mBuckets.isEmpty()) {
+            Map.Entry<Integer, ArrayDeque<Bitmap>> largest = mBuckets.lastEntry();
+            largest.getValue().pop().recycle();
+            onTaken(largest.getKey(), largest.getValue());
+        }
+    }
+
+    private static int byteCount(Bitmap bitmap) {
+        // The size a reconfigured bitmap was allocated with, not its current size
+        return Build.VERSION.SDK_INT >= 19 ? bitmap.getAllocationByteCount() : bitmap.getRowBytes() * bitmap.getHeight();
+    }
+}
@@ -0,0 +1,136 @@
+package com.wwimmo.imageeditor.utils;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from primitive int keys to non-null values.
+ *
+ * Unlike {@link android.util.SparseArray}, which keeps sorted arrays and shifts them on every
+ * insertion and removal, lookups, insertions and removals here are O(1) on average.
+ */
+public final class IntObjectMap<V> {
+    private static final float MAX_LOAD_FACTOR = 0.5f;
+
+    private int[] mKeys;
+    private Object[] mValues;
+    private int mSize = 0;
+
+    public IntObjectMap() {
+        this(16);
+    }
+
+    public IntObjectMap(int initialCapacity) {
+        int capacity = 16;
+        while (capacity * MAX_LOAD_FACTOR < initialCapacity) {
+            capacity <<= 1;
+        }
+        mKeys = new int[capacity];
+        mValues = new Object[capacity];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int mask = mKeys.length - 1;
+        for (int i = hash(key) & mask; mValues[i] != null; i = (i + 1) & mask) {
+            if (mKeys[i] == key) {
+                return (V) mValues[i];
+            }
+        }
+        return null;
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return the previous value for {@code key}, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("IntObjectMap does not support null values");
+        }
+        int mask = mKeys.length - 1;
+        int i = hash(key) & mask;
+        for (; mValues[i] != null; i = (i + 1) & mask) {
+            if (mKeys[i] == key) {
+                V previous = (V) mValues[i];
+                mValues[i] = value;
+                return previous;
+            }
+        }
+        mKeys[i] = key;
+        mValues[i] = value;
+        if (++mSize > mKeys.length * MAX_LOAD_FACTOR) {
+            resize(mKeys.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * @return the removed value, or null if {@code key} was not present
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int mask = mKeys.length - 1;
+        int i = hash(key) & mask;
+        for (; mValues[i] != null; i = (i + 1) & mask) {
+            if (mKeys[i] == key) {
+                break;
+            }
+        }
+        if (mValues[i] == null) {
+            return null;
+        }
+
+        V removed = (V) mValues[i];
+        mValues[i] = null;
+        mSize--;
+
+        // Shift following entries of the probe sequence back so lookups never stop at the hole
+        int hole = i;
+        for (int j = (i + 1) & mask; mValues[j] != null; j = (j + 1) & mask) {
+            int home = hash(mKeys[j]) & mask;
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                mKeys[hole] = mKeys[j];
+                mValues[hole] = mValues[j];
+                mValues[j] = null;
+                hole = j;
+            }
+        }
+        return removed;
+    }
+
+    public void clear() {
+        Arrays.fill(mValues, null);
+        mSize = 0;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = mKeys;
+        Object[] oldValues = mValues;
+        mKeys = new int[capacity];
+        mValues = new Object[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                int j = hash(oldKeys[i]) & mask;
+                while (mValues[j] != null) {
+                    j = (j + 1) & mask;
+                }
+                mKeys[j] = oldKeys[i];
+                mValues[j] = oldValues[i];
+            }
+        }
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,207 @@
+package com.wwimmo.imageeditor.utils;
+
+import android.graphics.Bitmap;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Streaming PNG encoder with a configurable deflate level.
+ *
+ * Rows are appended in order from one or more bitmaps, so an image can be encoded band by
+ * band without ever holding all of its pixels. {@link Bitmap#compress} offers no control
+ * over the compression level, this encoder trades file size for speed with a low level and
+ * unfiltered rows, and picks a filter per row like libpng at higher levels.
+ */
+public final class PngEncoder {
+    private static final byte[] SIGNATURE = { (byte)137, 80, 78, 71, 13, 10, 26, 10 };
+    private static final int IDAT_SIZE = 64 * 1024;
+
+    private final OutputStream mOut;
+    private final int mWidth, mHeight;
+    private final boolean mAlpha;
+    private final Deflater mDeflater;
+    private final CRC32 mCrc = new CRC32();
+    private final byte[] mChunkHeader = new byte[8];
+    private final boolean mFilter;
+    private final int mBytesPerPixel;
+    private byte[] mRow, mPreviousRow;
+    // Candidate filtered rows, each starting with its filter type byte
+    private final byte[][] mFiltered;
+    private final long[] mFilterSums = new long[5];
+    private final byte[] mDeflated = new byte[IDAT_SIZE];
+    private int[] mPixels;
+    private int mRowsWritten = 0;
+
+    /**
+     * @param alpha whether to keep the alpha channel, opaque images are smaller without it
+     * @param level deflate level, from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}
+     */
+    public PngEncoder(OutputStream out, int width, int height, boolean alpha, int level) throws IOException {
+        mOut = out;
+        mWidth = width;
+        mHeight = height;
+        mAlpha = alpha;
+        mDeflater = new Deflater(level);
+        mFilter = level != Deflater.BEST_SPEED && level != Deflater.NO_COMPRESSION;
+        mBytesPerPixel = alpha ? 4 : 3;
+        mRow = new byte[width * mBytesPerPixel];
+        mPreviousRow = new byte[mRow.length];
+        mFiltered = new byte[mFilter ? 5 : 1][1 + mRow.length];
+        mPixels = new int[width];
+
+        mOut.write(SIGNATURE);
+        byte[] header = new byte[13];
+        writeInt(header, 0, width);
+        writeInt(header, 4, height);
+        header[8] = 8;                      // Bit depth
+        header[9] = (byte)(alpha ? 6 : 2);  // Truecolor with or without alpha
+        header[10] = 0;                     // Deflate
+        header[11] = 0;                     // Adaptive filtering
+        header[12] = 0;                     // No interlace
+        writeChunk("IHDR", header, header.length);
+    }
+
+    /**
+     * Appends the first {@code rowCount} rows of {@code band}, which must be as wide as the image.
+     */
+    public void writeRows(Bitmap band, int rowCount) throws IOException {
+        if (mRowsWritten + rowCount > mHeight) {
+            throw new IllegalStateException("More rows than the image height");
+        }
+        for (int y = 0; y < rowCount; y++) {
+            // Colors are returned unpremultiplied, as PNG expects
+            band.getPixels(mPixels, 0, mWidth, 0, y, mWidth, 1);
+            int offset = 0;
+            for (int x = 0; x < mWidth; x++) {
+                int color = mPixels[x];
+                mRow[offset++] = (byte)(color >> 16);
+                mRow[offset++] = (byte)(color >> 8);
+                mRow[offset++] = (byte)color;
+                if (mAlpha) {
+                    mRow[offset++] = (byte)(color >>> 24);
+                }
+            }
+            byte[] filtered = mFilter ? filterRow() : copyRow();
+            mDeflater.setInput(filtered, 0, filtered.length);
+            while (!mDeflater.needsInput()) {
+                drain();
+            }
+
+            byte[] previous = mPreviousRow;
+            mPreviousRow = mRow;
+            mRow = previous;
+        }
+        mRowsWritten += rowCount;
+    }
+
+    private byte[] copyRow() {
+        byte[] out = mFiltered[0];
+        out[0] = 0;
+        System.arraycopy(mRow, 0, out, 1, mRow.length);
+        return out;
+    }
+
+    /**
+     * Applies every filter and keeps the one with the smallest sum of absolute values, which
+     * usually deflates best.
+     */
+    private byte[] filterRow() {
+        byte[] row = mRow, up = mPreviousRow;
+        int bpp = mBytesPerPixel;
+        long[] sums = mFilterSums;
+        for (int type = 0; type < 5; type++) {
+            mFiltered[type][0] = (byte)type;
+            sums[type] = 0;
+        }
+        for (int i = 0; i < row.length; i++) {
+            int x = row[i] & 0xff;
+            int a = i >= bpp ? row[i - bpp] & 0xff : 0;
+            int b = up[i] & 0xff;
+            int c = i >= bpp ? up[i - bpp] & 0xff : 0;
+
+            int p = a + b - c;
+            int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+            int paeth = pa <= pb && pa <= pc ? a : (pb <= pc ? b : c);
+
+            byte none = (byte)x, sub = (byte)(x - a), upFiltered = (byte)(x - b),
+                    average = (byte)(x - ((a + b) >> 1)), paethFiltered = (byte)(x - paeth);
+            mFiltered[0][i + 1] = none;
+            mFiltered[1][i + 1] = sub;
+            mFiltered[2][i + 1] = upFiltered;
+            mFiltered[3][i + 1] = average;
+            mFiltered[4][i + 1] = paethFiltered;
+            sums[0] += Math.abs(none);
+            sums[1] += Math.abs(sub);
+            sums[2] += Math.abs(upFiltered);
+            sums[3] += Math.abs(average);
+            sums[4] += Math.abs(paethFiltered);
+        }
+
+        int best = 0;
+        for (int type = 1; type < 5; type++) {
+            if (sums[type] < sums[best]) {
+                best = type;
+            }
+        }
+        return mFiltered[best];
+    }
+
+    /**
+     * Writes the remaining data and the end chunk, the stream is left open.
+     */
+    public void finish() throws IOException {
+        if (mRowsWritten != mHeight) {
+            throw new IllegalStateException("Expected " + mHeight + " rows, got " + mRowsWritten);
+        }
+        mDeflater.finish();
+        while (!mDeflater.finished()) {
+            drain();
+        }
+        mDeflater.end();
+        writeChunk("IEND", mDeflated, 0);
+        mOut.flush();
+        mPixels = null;
+    }
+
+    /**
+     * Encodes a whole bitmap.
+     */
+    public static void encode(Bitmap bitmap, boolean alpha, int level, OutputStream out) throws IOException {
+        PngEncoder encoder = new PngEncoder(out, bitmap.getWidth(), bitmap.getHeight(), alpha, level);
+        encoder.writeRows(bitmap, bitmap.getHeight());
+        encoder.finish();
+    }
+
+    private void drain() throws IOException {
+        int length = mDeflater.deflate(mDeflated, 0, mDeflated.length);
+        if (length > 0) {
+            writeChunk("IDAT", mDeflated, length);
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        writeInt(mChunkHeader, 0, length);
+        for (int i = 0; i < 4; i++) {
+            mChunkHeader[4 + i] = (byte)type.charAt(i);
+        }
+        mCrc.reset();
+        mCrc.update(mChunkHeader, 4, 4);
+        mCrc.update(data, 0, length);
+
+        mOut.write(mChunkHeader);
+        mOut.write(data, 0, length);
+        byte[] crc = new byte[4];
+        writeInt(crc, 0, (int)mCrc.getValue());
+        mOut.write(crc);
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte)(value >>> 24);
+        buffer[offset + 1] = (byte)(value >>> 16);
+        buffer[offset + 2] = (byte)(value >>> 8);
+        buffer[offset + 3] = (byte)value;
+    }
+}
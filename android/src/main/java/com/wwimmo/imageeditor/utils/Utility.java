@@ -13,6 +13,7 @@ import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.Canvas;
+import android.graphics.Matrix;
 import android.graphics.RectF;
 import android.graphics.PointF;
 import android.graphics.drawable.VectorDrawable;
@@ -44,6 +45,34 @@ public final class Utility {
         }
     }
 
+    /**
+     * Transform drawing a {@code bitmapWidth} x {@code bitmapHeight} bitmap rotated clockwise by
+     * {@code rotationInDegrees} into the {@link #fillImage} rectangle of the rotated image.
+     */
+    public static Matrix fillImageMatrix(float bitmapWidth, float bitmapHeight, int rotationInDegrees,
+                                         float targetWidth, float targetHeight, String mode) {
+        boolean swapped = rotationInDegrees % 180 != 0;
+        float width = swapped ? bitmapHeight : bitmapWidth, height = swapped ? bitmapWidth : bitmapHeight;
+        RectF target = fillImage(width, height, targetWidth, targetHeight, mode);
+
+        Matrix matrix = orientationMatrix(bitmapWidth, bitmapHeight, rotationInDegrees);
+        matrix.postScale(target.width() / width, target.height() / height);
+        matrix.postTranslate(target.left, target.top);
+        return matrix;
+    }
+
+    /**
+     * Rotation by {@code rotationInDegrees} that keeps the rotated bitmap at the origin.
+     */
+    public static Matrix orientationMatrix(float bitmapWidth, float bitmapHeight, int rotationInDegrees) {
+        Matrix matrix = new Matrix();
+        matrix.setRotate(rotationInDegrees);
+        RectF bounds = new RectF(0, 0, bitmapWidth, bitmapHeight);
+        matrix.mapRect(bounds);
+        matrix.postTranslate(-bounds.left, -bounds.top);
+        return matrix;
+    }
+
     public static int convertDpToPx(DisplayMetrics displayMetrics, float dp) {
         return (int) (dp * displayMetrics.density);
     }
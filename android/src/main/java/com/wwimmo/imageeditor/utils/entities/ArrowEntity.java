@@ -11,6 +11,7 @@ import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import com.wwimmo.imageeditor.utils.BitmapPool;
 import com.wwimmo.imageeditor.utils.layers.Layer;
 
 public class ArrowEntity extends MotionEntity {
@@ -86,7 +87,7 @@ public class ArrowEntity extends MotionEntity {
     private void configureArrowBitmap(@Nullable Paint paint) {
         updatePaint(paint);
         if (this.mArrowBitmap == null) {
-            this.mArrowBitmap = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
+            this.mArrowBitmap = BitmapPool.getInstance().acquire(getWidth(), getHeight());
             this.mArrowCanvas = new Canvas(this.mArrowBitmap);
         }
         this.mArrowCanvas.save();
@@ -149,7 +150,7 @@ public class ArrowEntity extends MotionEntity {
     @Override
     protected void drawContent(@NonNull Canvas canvas, @Nullable Paint drawingPaint) {
         configureArrowBitmap(drawingPaint);
-        canvas.drawBitmap(this.mArrowBitmap, matrix, this.mArrowPaint);
+        canvas.drawBitmap(stableBitmap(this.mArrowBitmap), matrix, this.mArrowPaint);
     }
 
     @Override
@@ -174,8 +175,9 @@ public class ArrowEntity extends MotionEntity {
 
     @Override
     public void release() {
-        if (this.mArrowBitmap != null && !this.mArrowBitmap.isRecycled()) {
-            this.mArrowBitmap.recycle();
+        if (this.mArrowBitmap != null) {
+            BitmapPool.getInstance().release(this.mArrowBitmap);
+            this.mArrowBitmap = null;
         }
     }
 }
\ No newline at end of file
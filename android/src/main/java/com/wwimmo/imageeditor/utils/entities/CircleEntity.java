@@ -10,6 +10,7 @@ import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import com.wwimmo.imageeditor.utils.BitmapPool;
 import com.wwimmo.imageeditor.utils.layers.Layer;
 
 public class CircleEntity extends MotionEntity {
@@ -78,7 +79,7 @@ public class CircleEntity extends MotionEntity {
     private void configureCircleBitmap(@Nullable Paint paint) {
         updatePaint(paint);
         if (this.mCircleBitmap == null) {
-            this.mCircleBitmap = Bitmap.createBitmap(getWidth()+(int)this.mBordersPadding, getHeight()+(int)this.mBordersPadding, Bitmap.Config.ARGB_8888);
+            this.mCircleBitmap = BitmapPool.getInstance().acquire(getWidth()+(int)this.mBordersPadding, getHeight()+(int)this.mBordersPadding);
             this.mCircleCanvas = new Canvas(this.mCircleBitmap);
         }
         this.mCircleCanvas.save();
@@ -110,7 +111,7 @@ public class CircleEntity extends MotionEntity {
     @Override
     protected void drawContent(@NonNull Canvas canvas, @Nullable Paint drawingPaint) {
         configureCircleBitmap(drawingPaint);
-        canvas.drawBitmap(this.mCircleBitmap, matrix, this.mCirclePaint);
+        canvas.drawBitmap(stableBitmap(this.mCircleBitmap), matrix, this.mCirclePaint);
     }
 
     @Override
@@ -135,8 +136,9 @@ public class CircleEntity extends MotionEntity {
 
     @Override
     public void release() {
-        if (this.mCircleBitmap != null && !this.mCircleBitmap.isRecycled()) {
-            this.mCircleBitmap.recycle();
+        if (this.mCircleBitmap != null) {
+            BitmapPool.getInstance().release(this.mCircleBitmap);
+            this.mCircleBitmap = null;
         }
     }
 
@@ -18,6 +18,7 @@ import android.support.v4.graphics.drawable.DrawableCompat;
 import com.facebook.react.uimanager.ThemedReactContext;
 
 import com.wwimmo.imageeditor.utils.layers.Layer;
+import com.wwimmo.imageeditor.utils.BitmapPool;
 import com.wwimmo.imageeditor.utils.Utility;
 import com.wwimmo.imageeditor.R;
 
@@ -98,7 +99,7 @@ public class CloudEntity extends MotionEntity {
     private void configureRectBitmap(@Nullable Paint paint) {
         updatePaint(paint);
         if (this.mRectBitmap == null) {
-            this.mRectBitmap = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
+            this.mRectBitmap = BitmapPool.getInstance().acquire(getWidth(), getHeight());
             this.mRectCanvas = new Canvas(this.mRectBitmap);
         }
         this.mRectCanvas.save();
@@ -149,7 +150,7 @@ public class CloudEntity extends MotionEntity {
     @Override
     protected void drawContent(@NonNull Canvas canvas, @Nullable Paint drawingPaint) {
         configureRectBitmap(drawingPaint);
-        canvas.drawBitmap(this.mRectBitmap, matrix, this.mRectPaint);
+        canvas.drawBitmap(stableBitmap(this.mRectBitmap), matrix, this.mRectPaint);
     }
 
     @Override
@@ -174,8 +175,9 @@ public class CloudEntity extends MotionEntity {
 
     @Override
     public void release() {
-        if (this.mRectBitmap != null && !this.mRectBitmap.isRecycled()) {
-            this.mRectBitmap.recycle();
+        if (this.mRectBitmap != null) {
+            BitmapPool.getInstance().release(this.mRectBitmap);
+            this.mRectBitmap = null;
         }
     }
 }
\ No newline at end of file
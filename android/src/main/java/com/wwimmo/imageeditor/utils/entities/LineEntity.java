@@ -10,6 +10,7 @@ import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import com.wwimmo.imageeditor.utils.BitmapPool;
 import com.wwimmo.imageeditor.utils.layers.Layer;
 
 public class LineEntity extends MotionEntity {
@@ -85,7 +86,7 @@ public class LineEntity extends MotionEntity {
     private void configureRectBitmap(@Nullable Paint paint) {
         updatePaint(paint);
         if (this.mRectBitmap == null) {
-            this.mRectBitmap = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
+            this.mRectBitmap = BitmapPool.getInstance().acquire(getWidth(), getHeight());
             this.mRectCanvas = new Canvas(this.mRectBitmap);
         }
         this.mRectCanvas.save();
@@ -122,7 +123,7 @@ public class LineEntity extends MotionEntity {
     @Override
     protected void drawContent(@NonNull Canvas canvas, @Nullable Paint drawingPaint) {
         configureRectBitmap(drawingPaint);
-        canvas.drawBitmap(this.mRectBitmap, matrix, this.mRectPaint);
+        canvas.drawBitmap(stableBitmap(this.mRectBitmap), matrix, this.mRectPaint);
     }
 
     @Override
@@ -147,8 +148,9 @@ public class LineEntity extends MotionEntity {
 
     @Override
     public void release() {
-        if (this.mRectBitmap != null && !this.mRectBitmap.isRecycled()) {
-            this.mRectBitmap.recycle();
+        if (this.mRectBitmap != null) {
+            BitmapPool.getInstance().release(this.mRectBitmap);
+            this.mRectBitmap = null;
         }
     }
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package com.wwimmo.imageeditor.utils.entities;
 
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Path;
 import android.graphics.DashPathEffect;
@@ -7,6 +8,7 @@ import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.PointF;
+import android.graphics.RectF;
 import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -16,6 +18,8 @@ import com.wwimmo.imageeditor.utils.Utility;
 import com.wwimmo.imageeditor.utils.entities.BorderStyle;
 import com.wwimmo.imageeditor.utils.layers.Layer;
 
+import java.util.List;
+
 @SuppressWarnings({"WeakerAccess"})
 public abstract class MotionEntity {
 
@@ -76,6 +80,13 @@ public abstract class MotionEntity {
     @NonNull
     private BorderStyle borderStyle = BorderStyle.DASHED;
 
+    /**
+     * Collects copies of the bitmaps drawn while the entity is recorded for an export
+     * @see #drawSnapshot(Canvas, Paint, List)
+     */
+    @Nullable
+    private List<Bitmap> snapshotBitmaps;
+
     public MotionEntity(String entityId, @NonNull Layer layer,
                         @IntRange(from = 1) int canvasWidth,
                         @IntRange(from = 1) int canvasHeight) {
@@ -208,6 +219,19 @@ public abstract class MotionEntity {
         return Utility.pointInTriangle(point, pA, pB, pC) || Utility.pointInTriangle(point, pA, pD, pC);
     }
 
+    /**
+     * Writes the bounding box of the transformed layer into {@code out}, borders included.
+     */
+    public void getBounds(RectF out) {
+        updateMatrix();
+        matrix.mapPoints(destPoints, srcPoints);
+        out.set(destPoints[0], destPoints[1], destPoints[0], destPoints[1]);
+        for (int i = 2; i < 8; i += 2) {
+            out.union(destPoints[i], destPoints[i + 1]);
+        }
+        out.inset(-borderPaint.getStrokeWidth(), -borderPaint.getStrokeWidth());
+    }
+
     /**
      * http://judepereira.com/blog/calculate-the-real-scale-factor-and-the-angle-of-rotation-from-an-android-matrix/
      *
@@ -236,6 +260,33 @@ public abstract class MotionEntity {
         canvas.restore();
     }
 
+    /**
+     * Draws the entity into a recording canvas whose content is replayed later, possibly on
+     * another thread. Entity bitmaps come from the shared pool and are redrawn or handed to
+     * another owner while the entity changes, so copies of them are recorded instead and added
+     * to {@code copies}, which the caller recycles once the recording is no longer needed.
+     */
+    public final void drawSnapshot(@NonNull Canvas canvas, @Nullable Paint drawingPaint, @NonNull List<Bitmap> copies) {
+        snapshotBitmaps = copies;
+        try {
+            draw(canvas, drawingPaint);
+        } finally {
+            snapshotBitmaps = null;
+        }
+    }
+
+    /**
+     * @return {@code bitmap}, or a copy of it while the entity is drawn for a snapshot
+     */
+    protected Bitmap stableBitmap(Bitmap bitmap) {
+        if (snapshotBitmaps == null || bitmap == null) {
+            return bitmap;
+        }
+        Bitmap copy = bitmap.copy(Bitmap.Config.ARGB_8888, false);
+        snapshotBitmaps.add(copy);
+        return copy;
+    }
+
     private void drawSelectedBg(Canvas canvas) {
         matrix.mapPoints(destPoints, srcPoints);
         if (this.borderStyle == BorderStyle.DASHED) {
@@ -12,6 +12,7 @@ import android.text.Layout;
 import android.text.StaticLayout;
 import android.text.TextPaint;
 
+import com.wwimmo.imageeditor.utils.BitmapPool;
 import com.wwimmo.imageeditor.utils.layers.TextLayer;
 
 public class TextEntity extends MotionEntity {
@@ -34,9 +35,9 @@ public class TextEntity extends MotionEntity {
     private void updateEntity(boolean moveToPreviousCenter) {
         Bitmap newBmp = configureTextBitmap(null, bitmap);
 
-        // recycle previous bitmap (if not reused) as soon as possible
-        if (bitmap != null && bitmap != newBmp && !bitmap.isRecycled()) {
-            bitmap.recycle();
+        // return previous bitmap (if not reused) to the pool as soon as possible
+        if (bitmap != null && bitmap != newBmp) {
+            BitmapPool.getInstance().release(bitmap);
         }
 
         this.bitmap = newBmp;
@@ -106,7 +107,7 @@ public class TextEntity extends MotionEntity {
             bmp = reuseBmp;
             bmp.eraseColor(Color.TRANSPARENT); // erase color when reusing
         } else {
-            bmp = Bitmap.createBitmap(boundsWidth, bmpHeight, Bitmap.Config.ARGB_8888);
+            bmp = BitmapPool.getInstance().acquire(boundsWidth, bmpHeight);
         }
 
         Canvas canvas = new Canvas(bmp);
@@ -137,9 +138,13 @@ public class TextEntity extends MotionEntity {
 
     @Override
     protected void drawContent(@NonNull Canvas canvas, @Nullable Paint drawingPaint) {
-        bitmap = configureTextBitmap(drawingPaint, bitmap);
+        Bitmap newBmp = configureTextBitmap(drawingPaint, bitmap);
+        if (bitmap != null && bitmap != newBmp) {
+            BitmapPool.getInstance().release(bitmap);
+        }
+        bitmap = newBmp;
         if (bitmap != null) {
-            canvas.drawBitmap(bitmap, matrix, drawingPaint);
+            canvas.drawBitmap(stableBitmap(bitmap), matrix, drawingPaint);
         }
     }
 
@@ -165,8 +170,9 @@ public class TextEntity extends MotionEntity {
 
     @Override
     public void release() {
-        if (bitmap != null && !bitmap.isRecycled()) {
-            bitmap.recycle();
+        if (bitmap != null) {
+            BitmapPool.getInstance().release(bitmap);
+            bitmap = null;
         }
     }
 }
\ No newline at end of file
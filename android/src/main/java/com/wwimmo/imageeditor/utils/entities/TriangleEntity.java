@@ -11,6 +11,7 @@ import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import com.wwimmo.imageeditor.utils.BitmapPool;
 import com.wwimmo.imageeditor.utils.layers.Layer;
 
 public class TriangleEntity extends MotionEntity {
@@ -83,7 +84,7 @@ public class TriangleEntity extends MotionEntity {
     private void configureTriangleBitmap(@Nullable Paint paint) {
         updatePaint(paint);
         if (this.mTriangleBitmap == null) {
-            this.mTriangleBitmap = Bitmap.createBitmap(getWidth()+(int)this.mBordersPadding, getHeight()+(int)this.mBordersPadding, Bitmap.Config.ARGB_8888);
+            this.mTriangleBitmap = BitmapPool.getInstance().acquire(getWidth()+(int)this.mBordersPadding, getHeight()+(int)this.mBordersPadding);
             this.mTriangleCanvas = new Canvas(this.mTriangleBitmap);
         }
         this.mTriangleCanvas.save();
@@ -131,7 +132,7 @@ public class TriangleEntity extends MotionEntity {
     @Override
     protected void drawContent(@NonNull Canvas canvas, @Nullable Paint drawingPaint) {
         configureTriangleBitmap(drawingPaint);
-        canvas.drawBitmap(this.mTriangleBitmap, matrix, this.mTrianglePaint);
+        canvas.drawBitmap(stableBitmap(this.mTriangleBitmap), matrix, this.mTrianglePaint);
     }
 
     @Override
@@ -156,8 +157,9 @@ public class TriangleEntity extends MotionEntity {
 
     @Override
     public void release() {
-        if (this.mTriangleBitmap != null && !this.mTriangleBitmap.isRecycled()) {
-            this.mTriangleBitmap.recycle();
+        if (this.mTriangleBitmap != null) {
+            BitmapPool.getInstance().release(this.mTriangleBitmap);
+            this.mTriangleBitmap = null;
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,73 @@
+package com.wwimmo.imageeditor;
+
+import android.graphics.Color;
+import android.graphics.Rect;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class SketchDataTest {
+    // The point buffer doubles from 32 points, so it holds 2048 points once point 1025 is in
+    private static final int WARM_UP_POINTS = 1100;
+    private static final int MEASURED_POINTS = 900;
+
+    @Test
+    public void addPointDoesNotAllocateAfterWarmUp() {
+        assertNoAllocations(new SketchData(1, Color.BLACK, 5));
+    }
+
+    @Test
+    public void addPointDoesNotAllocateAfterWarmUpForTranslucentStrokes() {
+        assertNoAllocations(new SketchData(2, Color.argb(128, 255, 0, 0), 5));
+    }
+
+    private static void assertNoAllocations(SketchData stroke) {
+        com.sun.management.ThreadMXBean threads = getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        Rect dirty = new Rect();
+
+        for (int i = 0; i < WARM_UP_POINTS; i++) {
+            stroke.addPoint(x(i), y(i), dirty);
+        }
+
+        // What reading the counter twice costs on its own
+        long overhead = -threads.getThreadAllocatedBytes(threadId) + threads.getThreadAllocatedBytes(threadId);
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = WARM_UP_POINTS; i < WARM_UP_POINTS + MEASURED_POINTS; i++) {
+            stroke.addPoint(x(i), y(i), dirty);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before - overhead;
+
+        assertEquals(WARM_UP_POINTS + MEASURED_POINTS, stroke.getPointCount());
+        assertEquals("bytes allocated by " + MEASURED_POINTS + " points", 0, allocated);
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadMXBean() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean)threads;
+        assumeTrue(sunThreads.isThreadAllocatedMemorySupported());
+        sunThreads.setThreadAllocatedMemoryEnabled(true);
+        return sunThreads;
+    }
+
+    private static float x(int i) {
+        return 100 + 80 * (float)Math.cos(i * 0.05);
+    }
+
+    private static float y(int i) {
+        return 100 + 80 * (float)Math.sin(i * 0.05) + i * 0.1f;
+    }
+}
@@ -138,6 +138,9 @@ export class ImageEditor extends React.Component<ImageEditorProps & ViewProperti
         includeText: boolean,
         cropToImageSize: boolean
     ): void;
+    /**
+     * On Android the paths have no `data`, use `exportPaths()` to get them with their points.
+     */
     getPaths(): Path[];
 
     /**
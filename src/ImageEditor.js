@@ -36,6 +36,8 @@ class ImageEditor extends React.Component {
         onStrokeEnd: PropTypes.func,
         onSketchSaved: PropTypes.func,
         onShapeSelectionChanged: PropTypes.func,
+        onStrokeSimplified: PropTypes.func,
+        onImageLoaded: PropTypes.func,
         shapeConfiguration: PropTypes.shape({
             shapeBorderColor: PropTypes.string,
             shapeBorderStyle: PropTypes.string,
@@ -43,6 +45,20 @@ class ImageEditor extends React.Component {
             shapeColor: PropTypes.string,
             shapeStrokeWidth: PropTypes.number,
         }),
+        strokeConfiguration: PropTypes.shape({
+            simplifyTolerance: PropTypes.number,
+            minPointDistance: PropTypes.number,
+            minPointInterval: PropTypes.number,
+            cornerAngle: PropTypes.number,
+            checkpointInterval: PropTypes.number,
+            checkpointMemoryLimit: PropTypes.number,
+            nativeTouchCapture: PropTypes.bool,
+            strokeEndIncludesPoints: PropTypes.bool,
+        }),
+        zoomConfiguration: PropTypes.shape({
+            enabled: PropTypes.bool,
+            maxZoom: PropTypes.number,
+        }),
         user: PropTypes.string,
         scale: PropTypes.number,
         rotation: PropTypes.number,
@@ -81,6 +97,8 @@ class ImageEditor extends React.Component {
         onStrokeEnd: () => {},
         onSketchSaved: () => {},
         onShapeSelectionChanged: () => {},
+        onStrokeSimplified: () => {},
+        onImageLoaded: () => {},
         rotation: 0,
         shapeConfiguration: {
             shapeBorderColor: "transparent",
@@ -89,6 +107,20 @@ class ImageEditor extends React.Component {
             shapeColor: "#000000",
             shapeStrokeWidth: 3,
         },
+        strokeConfiguration: {
+            simplifyTolerance: 0,
+            minPointDistance: 0,
+            minPointInterval: 0,
+            cornerAngle: 30,
+            checkpointInterval: 10,
+            checkpointMemoryLimit: 24 * 1024 * 1024,
+            nativeTouchCapture: false,
+            strokeEndIncludesPoints: true,
+        },
+        zoomConfiguration: {
+            enabled: false,
+            maxZoom: 8,
+        },
         user: null,
         scale: 1,
         touchEnabled: true,
@@ -116,6 +148,9 @@ class ImageEditor extends React.Component {
         this._handle = null;
         this._screenScale = Platform.OS === "ios" ? 1 : PixelRatio.get();
         this._offset = { x: 0, y: 0 };
+        this._pendingPoints = [];
+        this._pendingTimes = [];
+        this._flushFrame = null;
         this._size = { width: 0, height: 0 };
         this._initialized = false;
 
@@ -135,6 +170,15 @@ class ImageEditor extends React.Component {
         }
     }
 
+    static _hasPoints(data) {
+        if (data && data.path && Array.isArray(data.path.data)) {
+            return true;
+        }
+        // getPaths() entries have no points on Android, they come from exportPaths()
+        console.warn("ImageEditor: path without data skipped, use exportPaths() to get paths with their points");
+        return false;
+    }
+
     static processText(text) {
         text && text.forEach((t) => (t.fontColor = processColor(t.fontColor)));
         return text;
@@ -183,7 +227,32 @@ class ImageEditor extends React.Component {
         if (_lastAdded && _lastAdded.type == PATH) {
             let data = this._paths.find((x) => x.path.id == _lastAdded.id);
             if (data && data.path && data.path.id) {
-                this._copy.push({ type: PATH, data });
+                if (Platform.OS === "android") {
+                    // Points only live natively, fetch them for redo before the stroke is deleted.
+                    // The JS entry is gone by the time the export resolves, keep its color and drawer
+                    const entry = data;
+                    const copy = { type: PATH, data: null, pending: null };
+                    copy.pending = this.exportPaths({ ids: [entry.path.id] })
+                        .then(({ paths }) => {
+                            copy.data =
+                                paths.length > 0
+                                    ? {
+                                          path: { ...paths[0].path, color: entry.path.color, width: entry.path.width },
+                                          size: paths[0].size,
+                                          drawer: entry.drawer,
+                                      }
+                                    : null;
+                        })
+                        .catch(() => {
+                            copy.data = null;
+                        })
+                        .then(() => {
+                            copy.pending = null;
+                        });
+                    this._copy.push(copy);
+                } else {
+                    this._copy.push({ type: PATH, data });
+                }
                 this.deletePath(data.path.id);
             }
         } else if (_lastAdded && _lastAdded.type == SHAPE) {
@@ -198,8 +267,16 @@ class ImageEditor extends React.Component {
     redo() {
         let _lastRemoved = this.lastRemoved();
         if (_lastRemoved && _lastRemoved.type == PATH) {
-            if (_lastRemoved && _lastRemoved.data && _lastRemoved.data.path.id) {
-                this.addPath(_lastRemoved.data);
+            const restore = () => {
+                if (_lastRemoved.data && _lastRemoved.data.path.id && _lastRemoved.data.path.data) {
+                    this.addPath(_lastRemoved.data);
+                }
+            };
+            if (_lastRemoved.pending) {
+                // Undone on Android, the points are still on their way back from the native view
+                _lastRemoved.pending.then(restore);
+            } else {
+                restore();
             }
         } else if (_lastRemoved && _lastRemoved.type == SHAPE) {
             if (_lastRemoved && _lastRemoved.data && _lastRemoved.data.id) {
@@ -209,9 +286,12 @@ class ImageEditor extends React.Component {
     }
 
     addPath(data) {
+        if (!ImageEditor._hasPoints(data)) {
+            return;
+        }
         if (this._initialized) {
             if (this._paths.filter((p) => p.path.id === data.path.id).length === 0) {
-                this._paths.push(data);
+                this._paths.push(this._pathEntry(data));
                 this._history.push({ type: PATH, id: data.path.id });
             }
             const pathData = data.path.data.map((p) => {
@@ -231,6 +311,36 @@ class ImageEditor extends React.Component {
         }
     }
 
+    addPaths(datas) {
+        datas = datas.filter(ImageEditor._hasPoints);
+        if (!this._initialized || Platform.OS !== "android") {
+            datas.forEach((data) => this.addPath(data));
+            return;
+        }
+        const ids = new Set(this._paths.map((p) => p.path.id));
+        const packedPaths = datas.map((data) => {
+            if (!ids.has(data.path.id)) {
+                ids.add(data.path.id);
+                this._paths.push(this._pathEntry(data));
+                this._history.push({ type: PATH, id: data.path.id });
+            }
+            const scaleX = (this._screenScale * this._size.width) / data.size.width;
+            const scaleY = (this._screenScale * this._size.height) / data.size.height;
+            const points = new Array(data.path.data.length * 2);
+            data.path.data.forEach((p, i) => {
+                const separator = p.indexOf(",");
+                points[i * 2] = parseFloat(p.substring(0, separator)) * scaleX;
+                points[i * 2 + 1] = parseFloat(p.substring(separator + 1)) * scaleY;
+            });
+            return [data.path.id, processColor(data.path.color), data.path.width * this._screenScale, points];
+        });
+        UIManager.dispatchViewManagerCommand(
+            this._handle,
+            UIManager.getViewManagerConfig(RNImageEditor).Commands.addPaths,
+            [packedPaths]
+        );
+    }
+
     deletePath(id) {
         this._paths = this._paths.filter((p) => p.path.id !== id);
         UIManager.dispatchViewManagerCommand(
@@ -270,6 +380,16 @@ class ImageEditor extends React.Component {
         );
     }
 
+    resetZoom() {
+        if (Platform.OS === "android") {
+            UIManager.dispatchViewManagerCommand(
+                this._handle,
+                UIManager.getViewManagerConfig(RNImageEditor).Commands.resetZoom,
+                []
+            );
+        }
+    }
+
     deleteSelectedShape() {
         UIManager.dispatchViewManagerCommand(
             this._handle,
@@ -310,11 +430,15 @@ class ImageEditor extends React.Component {
         );
     }
 
-    save(imageType, transparent, folder, filename, includeImage, includeText, cropToImageSize) {
+    save(imageType, transparent, folder, filename, includeImage, includeText, cropToImageSize, options) {
+        const args = [imageType, folder, filename, transparent, includeImage, includeText, cropToImageSize];
+        if (Platform.OS === "android" && options) {
+            args.push(options);
+        }
         UIManager.dispatchViewManagerCommand(
             this._handle,
             UIManager.getViewManagerConfig(RNImageEditor).Commands.save,
-            [imageType, folder, filename, transparent, includeImage, includeText, cropToImageSize]
+            args
         );
     }
 
@@ -322,7 +446,40 @@ class ImageEditor extends React.Component {
         return this._paths;
     }
 
-    getBase64(imageType, transparent, includeImage, includeText, cropToImageSize, callback) {
+    exportPaths(options = {}) {
+        if (Platform.OS !== "android") {
+            return Promise.resolve({ version: 0, reset: true, paths: this._paths, removedIds: [] });
+        }
+        return new Promise((resolve, reject) => {
+            NativeModules.ImageEditorModule.getPaths(this._handle, options, (error, result) => {
+                if (error) {
+                    reject(new Error(error));
+                    return;
+                }
+                const entries = new Map(this._paths.map((p) => [p.path.id, p]));
+                resolve({
+                    version: result.version,
+                    reset: result.reset,
+                    removedIds: result.removedIds,
+                    paths: result.paths.map((stroke) => {
+                        const entry = entries.get(stroke.id);
+                        return {
+                            path: {
+                                id: stroke.id,
+                                color: entry ? entry.path.color : this._colorFromNative(stroke.color),
+                                width: stroke.width / this._screenScale,
+                                data: this._unpackPoints(stroke.points),
+                            },
+                            size: this._size,
+                            drawer: entry ? entry.drawer : this.props.user,
+                        };
+                    }),
+                });
+            });
+        });
+    }
+
+    getBase64(imageType, transparent, includeImage, includeText, cropToImageSize, callback, options) {
         if (Platform.OS === "ios") {
             ImageEditorManager.transferToBase64(
                 this._handle,
@@ -341,11 +498,98 @@ class ImageEditor extends React.Component {
                 includeImage,
                 includeText,
                 cropToImageSize,
+                options || null,
                 callback
             );
         }
     }
 
+    getUndoStats(callback) {
+        if (Platform.OS === "android") {
+            NativeModules.ImageEditorModule.getUndoStats(this._handle, callback);
+        } else {
+            callback("getUndoStats is only supported on Android", null);
+        }
+    }
+
+    componentWillUnmount() {
+        if (this._flushFrame !== null) {
+            cancelAnimationFrame(this._flushFrame);
+            this._flushFrame = null;
+        }
+    }
+
+    _usesNativeTouchCapture() {
+        // Zooming needs two finger gestures, which only the native touch handling tells apart from strokes
+        return (
+            Platform.OS === "android" &&
+            (!!this.props.strokeConfiguration.nativeTouchCapture || !!this.props.zoomConfiguration.enabled)
+        );
+    }
+
+    _onNativeStrokeEnd(stroke) {
+        const path = {
+            id: stroke.id,
+            color: this._colorFromNative(stroke.color),
+            width: stroke.width / this._screenScale,
+        };
+        if (stroke.points) {
+            path.data = this._unpackPoints(stroke.points);
+        }
+        this.props.onStrokeEnd({ path, size: this._size, drawer: this.props.user });
+        this._paths.push(this._pathEntry({ path, size: this._size, drawer: this.props.user }));
+        this._history.push({ type: PATH, id: path.id });
+    }
+
+    _colorFromNative(color) {
+        // Native colors are signed 32 bit ARGB ints
+        const argb = color >>> 0;
+        const alpha = parseFloat(((argb >>> 24) / 255).toFixed(3));
+        return `rgba(${(argb >>> 16) & 0xff}, ${(argb >>> 8) & 0xff}, ${argb & 0xff}, ${alpha})`;
+    }
+
+    _unpackPoints(points) {
+        const data = [];
+        for (let i = 0; i + 1 < points.length; i += 2) {
+            data.push(`${(points[i] / this._screenScale).toFixed(2)},${(points[i + 1] / this._screenScale).toFixed(2)}`);
+        }
+        return data;
+    }
+
+    _pathEntry(data) {
+        if (Platform.OS !== "android") {
+            return data;
+        }
+        // The native view owns the points, exportPaths() fetches them on demand
+        const { id, color, width } = data.path;
+        return { path: { id, color, width }, size: data.size, drawer: data.drawer };
+    }
+
+    _queuePoint(x, y, timestamp) {
+        this._pendingPoints.push(x, y);
+        // -1 marks samples without a touch time, they are never dropped for arriving too soon
+        this._pendingTimes.push(timestamp != null ? timestamp : -1);
+        if (this._flushFrame === null) {
+            this._flushFrame = requestAnimationFrame(() => this._flushPoints());
+        }
+    }
+
+    _flushPoints() {
+        if (this._flushFrame !== null) {
+            cancelAnimationFrame(this._flushFrame);
+            this._flushFrame = null;
+        }
+        if (this._pendingPoints.length > 0) {
+            UIManager.dispatchViewManagerCommand(
+                this._handle,
+                UIManager.getViewManagerConfig(RNImageEditor).Commands.addPoints,
+                [this._pendingPoints, true, this._pendingTimes]
+            );
+            this._pendingPoints = [];
+            this._pendingTimes = [];
+        }
+    }
+
     async componentDidMount() {
         const isStoragePermissionAuthorized = await requestPermissions(
             this.props.permissionDialogTitle,
@@ -376,10 +620,19 @@ class ImageEditor extends React.Component {
                     UIManager.getViewManagerConfig(RNImageEditor).Commands.newPath,
                     [this._path.id, processColor(this._path.color), this._path.width * this._screenScale]
                 );
+                const point = [
+                    parseFloat(x.toFixed(2) * this._screenScale),
+                    parseFloat(y.toFixed(2) * this._screenScale),
+                    true,
+                ];
+                if (Platform.OS === "android" && e.timestamp != null) {
+                    // Touch time for the input filter, the command itself may arrive much later
+                    point.push(e.timestamp);
+                }
                 UIManager.dispatchViewManagerCommand(
                     this._handle,
                     UIManager.getViewManagerConfig(RNImageEditor).Commands.addPoint,
-                    [parseFloat(x.toFixed(2) * this._screenScale), parseFloat(y.toFixed(2) * this._screenScale), true]
+                    point
                 );
 
                 this._path.data.push(`${x},${y}`);
@@ -399,11 +652,15 @@ class ImageEditor extends React.Component {
 
                     const x = parseFloat((gestureState.x0 + rotated_dx / this.props.scale - this._offset.x).toFixed(2));
                     const y = parseFloat((gestureState.y0 + rotated_dy / this.props.scale - this._offset.y).toFixed(2));
-                    UIManager.dispatchViewManagerCommand(
-                        this._handle,
-                        UIManager.getViewManagerConfig(RNImageEditor).Commands.addPoint,
-                        [parseFloat(x * this._screenScale), parseFloat(y * this._screenScale), true]
-                    );
+                    if (Platform.OS === "android") {
+                        this._queuePoint(x * this._screenScale, y * this._screenScale, evt.nativeEvent.timestamp);
+                    } else {
+                        UIManager.dispatchViewManagerCommand(
+                            this._handle,
+                            UIManager.getViewManagerConfig(RNImageEditor).Commands.addPoint,
+                            [parseFloat(x * this._screenScale), parseFloat(y * this._screenScale), true]
+                        );
+                    }
 
                     this._path.data.push(`${x},${y}`);
                     this.props.onStrokeChanged(x, y);
@@ -411,9 +668,10 @@ class ImageEditor extends React.Component {
             },
             onPanResponderRelease: (evt, gestureState) => {
                 if (!this.props.touchEnabled) return;
+                this._flushPoints();
                 if (this._path) {
                     this.props.onStrokeEnd({ path: this._path, size: this._size, drawer: this.props.user });
-                    this._paths.push({ path: this._path, size: this._size, drawer: this.props.user });
+                    this._paths.push(this._pathEntry({ path: this._path, size: this._size, drawer: this.props.user }));
                     this._history.push({ type: PATH, id: this._path.id });
                 }
                 UIManager.dispatchViewManagerCommand(
@@ -442,19 +700,31 @@ class ImageEditor extends React.Component {
                 onLayout={(e) => {
                     this._size = { width: e.nativeEvent.layout.width, height: e.nativeEvent.layout.height };
                     this._initialized = true;
-                    this._pathsToProcess.length > 0 && this._pathsToProcess.forEach((p) => this.addPath(p));
+                    if (this._pathsToProcess.length > 0) {
+                        this.addPaths(this._pathsToProcess);
+                        this._pathsToProcess = [];
+                    }
                 }}
-                {...(this.state.hasPanResponder ? this.panResponder.panHandlers : undefined)}
-                {...this.panResponder?.panHandlers}
+                {...(this.state.hasPanResponder && !this._usesNativeTouchCapture()
+                    ? this.panResponder.panHandlers
+                    : undefined)}
                 onChange={(e) => {
                     if (e.nativeEvent.hasOwnProperty("pathsUpdate")) {
                         this.props.onPathsChange(e.nativeEvent.pathsUpdate);
                     } else if (e.nativeEvent.hasOwnProperty("success") && e.nativeEvent.hasOwnProperty("path")) {
-                        this.props.onSketchSaved(e.nativeEvent.success, e.nativeEvent.path);
+                        const { success, path, encodeTime, size } = e.nativeEvent;
+                        this.props.onSketchSaved(success, path, encodeTime !== undefined ? { encodeTime, size } : undefined);
                     } else if (e.nativeEvent.hasOwnProperty("success")) {
                         this.props.onSketchSaved(e.nativeEvent.success);
                     } else if (e.nativeEvent.hasOwnProperty("isShapeSelected")) {
                         this.props.onShapeSelectionChanged(e.nativeEvent.isShapeSelected, e.nativeEvent.shapeText);
+                    } else if (e.nativeEvent.hasOwnProperty("imageLoaded")) {
+                        this.props.onImageLoaded(e.nativeEvent.imageLoaded);
+                    } else if (e.nativeEvent.hasOwnProperty("strokeEnd")) {
+                        this._onNativeStrokeEnd(e.nativeEvent.strokeEnd);
+                    } else if (e.nativeEvent.hasOwnProperty("strokeSimplified")) {
+                        const { id, receivedPoints, keptPoints } = e.nativeEvent.strokeSimplified;
+                        this.props.onStrokeSimplified(id, receivedPoints, keptPoints);
                     }
                 }}
                 localSourceImage={this.props.localSourceImage}
@@ -467,6 +737,16 @@ class ImageEditor extends React.Component {
                     shapeColor: processColor(this.props.strokeColor),
                     shapeStrokeWidth: this.props.strokeWidth,
                 }}
+                strokeConfiguration={{
+                    ...this.props.strokeConfiguration,
+                    nativeTouchCapture: this._usesNativeTouchCapture(),
+                    touchEnabled: this.props.touchEnabled,
+                    strokeColor: processColor(this.props.strokeColor),
+                    strokeWidth: this.props.strokeWidth * this._screenScale,
+                    touchScale: this.props.scale,
+                    touchRotation: this.props.rotation,
+                }}
+                zoomConfiguration={this.props.zoomConfiguration}
                 text={this.state.text}
             />
         );